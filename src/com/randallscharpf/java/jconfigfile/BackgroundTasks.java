@@ -0,0 +1,33 @@
+package com.randallscharpf.java.jconfigfile;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+/**
+ * Holder for the threads which run housekeeping work and saves for all open configs.
+ *
+ * The threads are created when first needed and are daemon threads, so they never
+ * keep a program running after its other threads have finished.
+ */
+final class BackgroundTasks {
+
+    static final ScheduledExecutorService EXECUTOR = new ScheduledThreadPoolExecutor(1, task -> {
+        Thread thread = new Thread(task, "jConfigFile background tasks");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // saves block on I/O, so each config being saved at the same time gets its own thread
+    static final ExecutorService IO_EXECUTOR = Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "jConfigFile saver");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private BackgroundTasks() {
+        // static members only
+    }
+
+}
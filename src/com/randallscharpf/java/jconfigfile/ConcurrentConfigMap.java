@@ -0,0 +1,296 @@
+package com.randallscharpf.java.jconfigfile;
+
+import java.io.IOException;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * Thread-safe map-backed {@link Config} implementation.
+ *
+ * NOTE: Changes made to a config of this type do not persist beyond the lifetime
+ * of the object.
+ *
+ * Stores key-value pairs in a persistent hash trie, so that the getter and setter
+ * methods may be called from any number of threads without external
+ * synchronization. Null keys and values are permitted and passing `null` works in
+ * the same way as passing any actual string would. Every change, including a whole
+ * {@code update}, installs one new version of the trie with a compare-and-set,
+ * so readers see all of a change or none of it and no method ever takes a lock.
+ * The atomic operations, such as {@code putIfAbsent} and {@code compute}, and
+ * {@code update} call their function again if another thread changed the config
+ * meanwhile. Iterating over {@code getKeys} sees the keys as they were when the
+ * iteration began, and taking a {@code snapshot} copies nothing and never holds up
+ * a change, since the snapshot holds the current version of the trie. The
+ * {@code save} and {@code close} methods of this implementation do nothing but
+ * flush the counters handed out by {@code counter}, and {@code saveAsync} returns
+ * a future which has already completed.
+ */
+public class ConcurrentConfigMap implements Config {
+
+    // compared by identity, standing in for null values so that one lookup tells them from missing keys
+    private static final String NULL = new String("null");
+
+    private final HashTrieMap<String, String> pairings;
+    private final LongAdder reads = new LongAdder();
+    private final LongAdder writes = new LongAdder();
+    private final Set<String> keys = new KeyView();
+    private final ConfigCounters counters = new ConfigCounters(this);
+
+    /**
+     * Creates a new thread-safe {@link Config} backed by a map object.
+     */
+    public ConcurrentConfigMap() {
+        this.pairings = new HashTrieMap<>();
+    }
+
+    @Override
+    public void setKey(String key, String value) {
+        writes.increment();
+        pairings.put(key, mask(value));
+    }
+
+    @Override
+    public String getKeyOrDefault(String key, String fallback) {
+        reads.increment();
+        String value = pairings.get(key);
+        return value == null ? fallback : unmask(value);
+    }
+
+    @Override
+    public Set<String> getKeys() {
+        return keys;
+    }
+
+    @Override
+    public void removeKey(String key) {
+        writes.increment();
+        pairings.remove(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The group is installed as one new version of the hash trie, so readers and
+     * snapshots see all of it or none of it, and it is atomic with respect to every
+     * other change, including the atomic operations. The function is called again if
+     * another change was made while it ran, and the values its editor reads are
+     * counted on every call.
+     */
+    @Override
+    public void update(Consumer<? super ConfigEditor> edits) {
+        while (true) {
+            Map<String, String> base = pairings.snapshot();
+            ConfigEdits pending = new ConfigEdits(new Snapshot(base, true));
+            edits.accept(pending);
+            pending.finish();
+            Map<String, String> changes = new LinkedHashMap<>();
+            for (String key : pending.keys()) {
+                changes.put(key, pending.removes(key) ? null : mask(pending.value(key)));
+            }
+            if (changes.isEmpty() || pairings.commit(base, changes)) {
+                writes.add(changes.size());
+                return;
+            }
+        }
+    }
+
+    @Override
+    public boolean putIfAbsent(String key, String value) {
+        writes.increment();
+        boolean[] added = new boolean[1];
+        pairings.compute(key, current -> {
+            added[0] = current == null;
+            return added[0] ? mask(value) : current;
+        });
+        return added[0];
+    }
+
+    @Override
+    public boolean replace(String key, String expected, String value) {
+        writes.increment();
+        boolean[] replaced = new boolean[1];
+        pairings.compute(key, current -> {
+            replaced[0] = current != null && Objects.equals(unmask(current), expected);
+            return replaced[0] ? mask(value) : current;
+        });
+        return replaced[0];
+    }
+
+    @Override
+    public String compute(String key, String fallback, UnaryOperator<String> remapping) {
+        writes.increment();
+        return unmask(pairings.compute(key, current -> mask(remapping.apply(current == null ? fallback : unmask(current)))));
+    }
+
+    @Override
+    public String merge(String key, String value, BinaryOperator<String> remapping) {
+        writes.increment();
+        return unmask(pairings.compute(key, current -> mask(current == null ? value : remapping.apply(unmask(current), value))));
+    }
+
+    @Override
+    public Config snapshot() {
+        return new Snapshot(pairings.snapshot(), false);
+    }
+
+    /**
+     * Returns the number of times a value has been read from this config.
+     *
+     * Every call to {@code getKeyOrDefault} is counted, including the calls made
+     * by the typed getters, such as {@code getInt}, and by the editor passed to
+     * {@code update}. Reading the keys through {@code getKeys} or reading a
+     * {@code snapshot} is not counted.
+     *
+     * @return the number of values read so far
+     */
+    public long getReadCount() {
+        return reads.sum();
+    }
+
+    /**
+     * Returns the number of changes which have been asked of this config.
+     *
+     * Every call to {@code setKey}, {@code removeKey}, {@code putIfAbsent},
+     * {@code replace}, {@code compute} or {@code merge} is counted once, including
+     * those which did not change any value, as is every removal through the set
+     * returned by {@code getKeys}. An {@code update} is counted once for each key it
+     * sets or removes, and flushing a counter which was added to is counted as one
+     * {@code compute}. Taking a {@code snapshot} is not counted.
+     *
+     * @return the number of changes asked for so far
+     */
+    public long getWriteCount() {
+        return writes.sum();
+    }
+
+    @Override
+    public ConfigCounter counter(String key) {
+        return counters.get(key);
+    }
+
+    @Override
+    public void save() throws IOException {
+        // this map cannot be saved and serves as a fallback config, but counters are still folded in
+        counters.flush();
+    }
+
+    @Override
+    public CompletableFuture<Void> saveAsync() {
+        counters.flush();
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public CompletableFuture<Void> saveAsync(Executor executor) {
+        // nothing to save, so there is no reason to involve the executor
+        counters.flush();
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public void close() throws IOException {
+        // this uses no external resources, but closing saves, which folds in the counters
+        counters.flush();
+    }
+
+    private static String mask(String value) {
+        return value == null ? NULL : value;
+    }
+
+    private static String unmask(String stored) {
+        return stored == NULL ? null : stored;
+    }
+
+    /**
+     * Read-only view of one version of the trie, which translates the null sentinel.
+     */
+    private final class Snapshot extends ConfigSnapshot<String> {
+
+        // set for the base of an update, whose editor's reads count as reads of this config
+        private final boolean counted;
+
+        Snapshot(Map<String, String> pairings, boolean counted) {
+            super(pairings);
+            this.counted = counted;
+        }
+
+        @Override
+        public String getKeyOrDefault(String key, String fallback) {
+            if (counted) {
+                reads.increment();
+            }
+            return super.getKeyOrDefault(key, fallback);
+        }
+
+        @Override
+        String valueOf(String stored) {
+            return unmask(stored);
+        }
+    }
+
+    /**
+     * Set view of the keys which counts removals, whose iterators work on the version of the trie they were created from.
+     */
+    private final class KeyView extends AbstractSet<String> {
+
+        @Override
+        public int size() {
+            return pairings.size();
+        }
+
+        @Override
+        public boolean contains(Object key) {
+            return pairings.containsKey(key);
+        }
+
+        @Override
+        public boolean remove(Object key) {
+            if (!(key == null || key instanceof String)) {
+                return false;
+            }
+            writes.increment();
+            return pairings.remove(key) != null;
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+            Iterator<String> iterator = pairings.snapshot().keySet().iterator();
+            return new Iterator<String>() {
+                private String current;
+                private boolean removable;
+
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public String next() {
+                    current = iterator.next();
+                    removable = true;
+                    return current;
+                }
+
+                @Override
+                public void remove() {
+                    if (!removable) {
+                        throw new IllegalStateException();
+                    }
+                    removable = false;
+                    KeyView.this.remove(current);
+                }
+            };
+        }
+    }
+
+}
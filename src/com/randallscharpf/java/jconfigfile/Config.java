@@ -2,7 +2,16 @@ package com.randallscharpf.java.jconfigfile;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
 
 /**
  * Key-value store to hold a program configuration.
@@ -42,7 +51,9 @@ import java.util.Set;
  * 
  * The configuration only allows strings to be used as keys to be used as keys and
  * values. Application-specific conversion of key-value pairs to and from objects
- * must be handled externally.
+ * must be handled externally, except for the numbers, booleans and durations read
+ * and written by the typed getters and setters such as {@code getInt} and
+ * {@code setInt}.
  */
 public interface Config extends Closeable {
 
@@ -68,6 +79,144 @@ public interface Config extends Closeable {
      */
     public String getKeyOrDefault(String key, String fallback);
 
+    /**
+     * Returns the value associated with the key parsed as an {@code int}, or a fallback
+     * if the key does not exist or does not hold an {@code int}.
+     * 
+     * The value must be written as by {@link Integer#parseInt(String)}. Implementations
+     * may cache the parsed value until the key is next changed.
+     * 
+     * @param key the key to look up in the configuration
+     * @param fallback the number to return if the key is not found or is not an {@code int}
+     * @return the number held by the key, if it is found, or the fallback otherwise
+     */
+    public default int getInt(String key, int fallback) {
+        return ParsedValue.parse(ParsedValue.Kind.INT, getKeyOrDefault(key, null)).intValue(fallback);
+    }
+
+    /**
+     * Returns the value associated with the key parsed as a {@code long}, or a fallback
+     * if the key does not exist or does not hold a {@code long}.
+     * 
+     * The value must be written as by {@link Long#parseLong(String)}. Implementations
+     * may cache the parsed value until the key is next changed.
+     * 
+     * @param key the key to look up in the configuration
+     * @param fallback the number to return if the key is not found or is not a {@code long}
+     * @return the number held by the key, if it is found, or the fallback otherwise
+     */
+    public default long getLong(String key, long fallback) {
+        return ParsedValue.parse(ParsedValue.Kind.LONG, getKeyOrDefault(key, null)).longValue(fallback);
+    }
+
+    /**
+     * Returns the value associated with the key parsed as a {@code double}, or a fallback
+     * if the key does not exist or does not hold a {@code double}.
+     * 
+     * The value must be written as by {@link Double#parseDouble(String)}, which does
+     * not depend on the locale. Implementations may cache the parsed value until the
+     * key is next changed.
+     * 
+     * @param key the key to look up in the configuration
+     * @param fallback the number to return if the key is not found or is not a {@code double}
+     * @return the number held by the key, if it is found, or the fallback otherwise
+     */
+    public default double getDouble(String key, double fallback) {
+        return ParsedValue.parse(ParsedValue.Kind.DOUBLE, getKeyOrDefault(key, null)).doubleValue(fallback);
+    }
+
+    /**
+     * Returns the value associated with the key parsed as a {@code boolean}, or a fallback
+     * if the key does not exist or does not hold {@code true} or {@code false}.
+     * 
+     * The case of the value is ignored. Implementations may cache the parsed value
+     * until the key is next changed.
+     * 
+     * @param key the key to look up in the configuration
+     * @param fallback the value to return if the key is not found or is not a {@code boolean}
+     * @return the value held by the key, if it is found, or the fallback otherwise
+     */
+    public default boolean getBoolean(String key, boolean fallback) {
+        return ParsedValue.parse(ParsedValue.Kind.BOOLEAN, getKeyOrDefault(key, null)).booleanValue(fallback);
+    }
+
+    /**
+     * Returns the value associated with the key parsed as a {@link Duration}, or a fallback
+     * if the key does not exist or does not hold a duration.
+     * 
+     * The value must be written as by {@link Duration#parse(CharSequence)}, such as
+     * {@code PT30S} for thirty seconds. Implementations may cache the parsed value
+     * until the key is next changed.
+     * 
+     * @param key the key to look up in the configuration
+     * @param fallback the duration to return if the key is not found or is not a duration
+     * @return the duration held by the key, if it is found, or the fallback otherwise
+     */
+    public default Duration getDuration(String key, Duration fallback) {
+        return ParsedValue.parse(ParsedValue.Kind.DURATION, getKeyOrDefault(key, null)).durationValue(fallback);
+    }
+
+    /**
+     * Creates or updates a key-value pair holding an {@code int}.
+     * 
+     * The number is written as by {@link Integer#toString(int)}, which does not depend
+     * on the locale.
+     * 
+     * @param key new or existing key for the configuration
+     * @param value number to associate with the key
+     */
+    public default void setInt(String key, int value) {
+        setKey(key, Integer.toString(value));
+    }
+
+    /**
+     * Creates or updates a key-value pair holding a {@code long}.
+     * 
+     * The number is written as by {@link Long#toString(long)}, which does not depend
+     * on the locale.
+     * 
+     * @param key new or existing key for the configuration
+     * @param value number to associate with the key
+     */
+    public default void setLong(String key, long value) {
+        setKey(key, Long.toString(value));
+    }
+
+    /**
+     * Creates or updates a key-value pair holding a {@code double}.
+     * 
+     * The number is written as by {@link Double#toString(double)}, which does not
+     * depend on the locale and reads back as exactly the same number.
+     * 
+     * @param key new or existing key for the configuration
+     * @param value number to associate with the key
+     */
+    public default void setDouble(String key, double value) {
+        setKey(key, Double.toString(value));
+    }
+
+    /**
+     * Creates or updates a key-value pair holding a {@code boolean}.
+     * 
+     * @param key new or existing key for the configuration
+     * @param value {@code true} or {@code false} to associate with the key
+     */
+    public default void setBoolean(String key, boolean value) {
+        setKey(key, value ? "true" : "false");
+    }
+
+    /**
+     * Creates or updates a key-value pair holding a {@link Duration}.
+     * 
+     * The duration is written as by {@link Duration#toString()}.
+     * 
+     * @param key new or existing key for the configuration
+     * @param value duration to associate with the key, which must not be {@code null}
+     */
+    public default void setDuration(String key, Duration value) {
+        setKey(key, value.toString());
+    }
+
     /**
      * Returns a {@link Set} view of the keys held by the configuration.
      * 
@@ -87,6 +236,159 @@ public interface Config extends Closeable {
      */
     public void removeKey(String key);
 
+    /**
+     * Applies a group of changes to the configuration all at once.
+     * 
+     * The function is passed a {@link ConfigEditor}, through which it sets and
+     * removes keys. Nothing is changed until the function returns, and if it throws
+     * an exception, nothing is changed at all. The editor's getters see the
+     * configuration together with the changes already made through the editor, so
+     * the function can base its changes on the current values.
+     * 
+     * The default implementation calls the function and then applies the changes
+     * with {@code setKey} and {@code removeKey}, all while synchronized on the
+     * configuration. The group is therefore atomic with respect to other updates,
+     * including the default atomic operations built on them, and to users which
+     * synchronize on the configuration, but not to other readers. Implementations
+     * which can apply the group atomically with respect to every reader override it.
+     * Such implementations may call the function more than once if another thread
+     * changes the configuration meanwhile, so it should do nothing but use the editor.
+     * 
+     * @param edits the function making the changes through the editor it is passed
+     */
+    public default void update(Consumer<? super ConfigEditor> edits) {
+        // the values the function reads must not change before its changes are applied
+        synchronized (this) {
+            ConfigEdits pending = new ConfigEdits(this);
+            edits.accept(pending);
+            pending.finish();
+            pending.applyTo(this);
+        }
+    }
+
+    /**
+     * Creates a key-value pair if the key does not exist yet, in one atomic step.
+     * 
+     * The default implementation, like the other atomic operations, is built on
+     * {@code update} and is exactly as atomic as it is.
+     * 
+     * @param key the key to create
+     * @param value value to associate with the key
+     * @return whether the pair was created, rather than the key already existing
+     */
+    public default boolean putIfAbsent(String key, String value) {
+        boolean[] added = new boolean[1];
+        update(editor -> {
+            added[0] = !editor.hasKey(key);
+            if (added[0]) {
+                editor.setKey(key, value);
+            }
+        });
+        return added[0];
+    }
+
+    /**
+     * Updates a key-value pair if the key currently holds the expected value, in one atomic step.
+     * 
+     * @param key the key to update
+     * @param expected the value the key must hold for it to be updated, which may be {@code null}
+     * @param value new value to associate with the key
+     * @return whether the pair was updated
+     */
+    public default boolean replace(String key, String expected, String value) {
+        boolean[] replaced = new boolean[1];
+        update(editor -> {
+            replaced[0] = editor.hasKey(key) && Objects.equals(editor.getKeyOrDefault(key, null), expected);
+            if (replaced[0]) {
+                editor.setKey(key, value);
+            }
+        });
+        return replaced[0];
+    }
+
+    /**
+     * Sets a key to a value computed from its current value, in one atomic step.
+     * 
+     * The function is given the current value of the key, or {@code fallback} if the
+     * key does not exist, and the key is set to the value it returns. Implementations
+     * may call the function more than once if another thread changes the key
+     * meanwhile, so it should have no side effects.
+     * 
+     * @param key the key to create or update
+     * @param fallback the value to pass to the function if the key is not found
+     * @param remapping computes the new value from the current value
+     * @return the new value associated with the key
+     */
+    public default String compute(String key, String fallback, UnaryOperator<String> remapping) {
+        String[] computed = new String[1];
+        update(editor -> {
+            computed[0] = remapping.apply(editor.getKeyOrDefault(key, fallback));
+            editor.setKey(key, computed[0]);
+        });
+        return computed[0];
+    }
+
+    /**
+     * Creates a key-value pair, or combines the value with the current value of the key, in one atomic step.
+     * 
+     * If the key does not exist, it is set to {@code value}. Otherwise, it is set to
+     * the result of applying the function to its current value and {@code value}.
+     * As with {@code compute}, the function may be called more than once.
+     * 
+     * @param key the key to create or update
+     * @param value the value to create the key with or combine with its current value
+     * @param remapping combines the current value with {@code value}
+     * @return the new value associated with the key
+     */
+    public default String merge(String key, String value, BinaryOperator<String> remapping) {
+        String[] merged = new String[1];
+        update(editor -> {
+            merged[0] = editor.hasKey(key) ? remapping.apply(editor.getKeyOrDefault(key, null), value) : value;
+            editor.setKey(key, merged[0]);
+        });
+        return merged[0];
+    }
+
+    /**
+     * Returns a counter which adds to the number held by a key without locking.
+     * 
+     * Adding to the counter is much cheaper than updating the key with
+     * {@code compute}, and the additions are written to the key when the counter is
+     * flushed. Implementations which keep track of their counters return the same
+     * counter each time a key is asked for, and flush their counters whenever they
+     * are saved. The default implementation returns a new counter which is only
+     * flushed by calling {@link ConfigCounter#flush}.
+     * 
+     * @param key the key holding the number
+     * @return a counter adding to the key
+     */
+    public default ConfigCounter counter(String key) {
+        return new ConfigCounter(this, key);
+    }
+
+    /**
+     * Returns a read-only view of the configuration as it is at this instant.
+     * 
+     * Later changes to the configuration do not affect the snapshot, so several
+     * related keys can be read from it, and its keys iterated over, without seeing
+     * a change only partly applied. The setters of the snapshot throw
+     * {@link UnsupportedOperationException}, its key set cannot be changed, and its
+     * {@code save} and {@code close} methods do nothing.
+     * 
+     * The default implementation copies every key-value pair, and the copy is only
+     * consistent if no other thread changes the configuration while it is made.
+     * Implementations which can share their storage with the snapshot override it.
+     * 
+     * @return an unchanging, read-only copy of the configuration
+     */
+    public default Config snapshot() {
+        Map<String, String> copy = new HashMap<>();
+        for (String key : getKeys()) {
+            copy.put(key, getKeyOrDefault(key, null));
+        }
+        return ConfigSnapshot.of(copy);
+    }
+
     /**
      * Ensure that cached changes are pushed through to the strongest level of persistence.
      * 
@@ -94,12 +396,48 @@ public interface Config extends Closeable {
      * ensure that the process can be called from an auxiliary thread. Users should
      * not call this method from a thread where a temporary blocking delay is
      * unacceptable, especially for configurations with a large number of key-value
-     * pairs.
+     * pairs, and should use {@code saveAsync} from such threads instead.
      * 
      * @throws IOException if an I/O error occurs while pushing changes to persistent memory
      */
     public void save() throws IOException;
 
+    /**
+     * Performs a {@code save} on a shared background thread.
+     * 
+     * This method does not block. The returned future completes once the save has
+     * finished, or completes exceptionally with the {@link IOException} or other
+     * exception thrown by the save.
+     * 
+     * @return a future which completes when the changes have been pushed to persistent memory
+     */
+    public default CompletableFuture<Void> saveAsync() {
+        return saveAsync(BackgroundTasks.IO_EXECUTOR);
+    }
+
+    /**
+     * Performs a {@code save} using the given executor.
+     * 
+     * This method does not block, except as required by the executor to accept the
+     * task. The returned future completes once the save has finished, or completes
+     * exceptionally with the {@link IOException} or other exception thrown by the save.
+     * 
+     * @param executor the executor to run the save on
+     * @return a future which completes when the changes have been pushed to persistent memory
+     */
+    public default CompletableFuture<Void> saveAsync(Executor executor) {
+        CompletableFuture<Void> saved = new CompletableFuture<>();
+        executor.execute(() -> {
+            try {
+                save();
+                saved.complete(null);
+            } catch (IOException | RuntimeException ex) {
+                saved.completeExceptionally(ex);
+            }
+        });
+        return saved;
+    }
+
     /**
      * {@inheritDoc}
      */
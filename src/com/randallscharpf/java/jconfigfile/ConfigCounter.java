@@ -0,0 +1,96 @@
+package com.randallscharpf.java.jconfigfile;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Number stored in a {@link Config} key which many threads can add to cheaply.
+ *
+ * Additions are collected in a {@link LongAdder}, so adding to the counter takes
+ * no lock and does not touch the config. The collected additions are added to the
+ * number held by the key when the counter is flushed, which the configs of this
+ * library do each time they are saved. Until then, the key and
+ * {@link Config#getKeyOrDefault} keep the number as it was last flushed, while
+ * {@link #get} includes the additions since. A key which does not exist, or does
+ * not hold a number, counts as zero when the counter is flushed.
+ *
+ * Counters are obtained with {@link Config#counter}.
+ */
+public final class ConfigCounter {
+
+    private final Config config;
+    private final String key;
+    private final LongAdder added = new LongAdder();
+    // the part of the added total which has been written to the key, guarded by this
+    private long flushed;
+
+    ConfigCounter(Config config, String key) {
+        this.config = config;
+        this.key = key;
+    }
+
+    /**
+     * Returns the key which holds the number.
+     *
+     * @return the key this counter adds to
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Adds one to the counter.
+     */
+    public void increment() {
+        added.increment();
+    }
+
+    /**
+     * Adds a number, which may be negative, to the counter.
+     *
+     * @param delta the number to add
+     */
+    public void add(long delta) {
+        added.add(delta);
+    }
+
+    /**
+     * Returns the number held by the key together with the additions not yet flushed.
+     *
+     * Additions made by other threads while this runs may or may not be included.
+     *
+     * @return the current value of the counter
+     */
+    public synchronized long get() {
+        return parse(config.getKeyOrDefault(key, null)) + added.sum() - flushed;
+    }
+
+    /**
+     * Adds the additions made since the last flush to the number held by the key.
+     *
+     * The key is changed with {@link Config#compute}, so the flush is atomic with
+     * respect to other changes to the key. Nothing is changed if there were no
+     * additions.
+     */
+    public synchronized void flush() {
+        long total = added.sum();
+        long delta = total - flushed;
+        if (delta == 0) {
+            return;
+        }
+        config.compute(key, null, value -> Long.toString(parse(value) + delta));
+        flushed = total;
+    }
+
+    private static long parse(String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException ex) {
+            // not a number: count from zero
+            return 0;
+        }
+    }
+
+}
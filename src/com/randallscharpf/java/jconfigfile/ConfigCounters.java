@@ -0,0 +1,41 @@
+package com.randallscharpf.java.jconfigfile;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The counters handed out by one config, so that they can all be flushed when it is saved.
+ */
+final class ConfigCounters {
+
+    private final Config config;
+    private final Map<String, ConfigCounter> counters = new HashMap<>();
+
+    ConfigCounters(Config config) {
+        this.config = config;
+    }
+
+    /**
+     * Returns the counter for a key, creating it the first time the key is asked for.
+     */
+    synchronized ConfigCounter get(String key) {
+        return counters.computeIfAbsent(key, counted -> new ConfigCounter(config, counted));
+    }
+
+    /**
+     * Flushes every counter handed out so far.
+     */
+    void flush() {
+        ConfigCounter[] handedOut;
+        synchronized (this) {
+            if (counters.isEmpty()) {
+                return;
+            }
+            handedOut = counters.values().toArray(new ConfigCounter[counters.size()]);
+        }
+        for (ConfigCounter counter : handedOut) {
+            counter.flush();
+        }
+    }
+
+}
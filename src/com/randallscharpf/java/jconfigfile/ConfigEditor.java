@@ -0,0 +1,50 @@
+package com.randallscharpf.java.jconfigfile;
+
+/**
+ * Group of changes to a {@link Config} which is applied all at once by {@link Config#update}.
+ *
+ * Changes made through an editor are held back until the function passed to
+ * {@code update} returns, and are then applied together. The getters of an
+ * editor see the config as it was when the update began, together with the
+ * changes already made through the editor. An editor must not be used once the
+ * function it was passed to has returned.
+ */
+public interface ConfigEditor {
+
+    /**
+     * Creates or updates a key-value pair as part of the update.
+     *
+     * @param key new or existing key for the configuration
+     * @param value value to associate with the key
+     * @return this editor
+     */
+    public ConfigEditor setKey(String key, String value);
+
+    /**
+     * Removes the key-value pair associated with the specified key as part of the update.
+     *
+     * If the key is not present in the configuration, this method does nothing.
+     *
+     * @param key the key to lookup and remove
+     * @return this editor
+     */
+    public ConfigEditor removeKey(String key);
+
+    /**
+     * Returns the value the key will have once the update is applied, or a fallback
+     * if the key will not exist.
+     *
+     * @param key the key to look up in the configuration
+     * @param fallback the string to return if the key is not found
+     * @return the value associated with the key, if it is found, or the fallback otherwise
+     */
+    public String getKeyOrDefault(String key, String fallback);
+
+    /**
+     * Returns whether the key will exist once the update is applied.
+     *
+     * @param key the key to look up in the configuration
+     * @return whether the key is associated with a value
+     */
+    public boolean hasKey(String key);
+}
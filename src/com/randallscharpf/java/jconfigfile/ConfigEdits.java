@@ -0,0 +1,100 @@
+package com.randallscharpf.java.jconfigfile;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@link ConfigEditor} which records changes over a base config until they are applied.
+ *
+ * Only the last change to each key is kept. The base config is read, but never
+ * changed, by the editor.
+ */
+final class ConfigEdits implements ConfigEditor {
+
+    // compared by identity, so that it cannot be confused with any value
+    private static final String REMOVED = new String("removed");
+
+    private final Config base;
+    private final Map<String, String> changes = new LinkedHashMap<>();
+    private boolean finished;
+
+    ConfigEdits(Config base) {
+        this.base = base;
+    }
+
+    @Override
+    public ConfigEditor setKey(String key, String value) {
+        checkOpen();
+        changes.put(key, value);
+        return this;
+    }
+
+    @Override
+    public ConfigEditor removeKey(String key) {
+        checkOpen();
+        changes.put(key, REMOVED);
+        return this;
+    }
+
+    @Override
+    public String getKeyOrDefault(String key, String fallback) {
+        checkOpen();
+        if (changes.containsKey(key)) {
+            String value = changes.get(key);
+            return value == REMOVED ? fallback : value;
+        }
+        return base.getKeyOrDefault(key, fallback);
+    }
+
+    @Override
+    public boolean hasKey(String key) {
+        checkOpen();
+        if (changes.containsKey(key)) {
+            return changes.get(key) != REMOVED;
+        }
+        return base.getKeys().contains(key);
+    }
+
+    /**
+     * Stops the editor from accepting changes, once the function it was passed to has returned.
+     */
+    void finish() {
+        finished = true;
+    }
+
+    /**
+     * Returns the keys which were set or removed, in the order they were first changed.
+     */
+    Set<String> keys() {
+        return changes.keySet();
+    }
+
+    boolean removes(String key) {
+        return changes.get(key) == REMOVED;
+    }
+
+    String value(String key) {
+        return changes.get(key);
+    }
+
+    /**
+     * Applies the changes one by one to a config.
+     */
+    void applyTo(Config target) {
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            if (change.getValue() == REMOVED) {
+                target.removeKey(change.getKey());
+            } else {
+                target.setKey(change.getKey(), change.getValue());
+            }
+        }
+    }
+
+    private void checkOpen() {
+        if (finished) {
+            throw new IllegalStateException("the update this editor belongs to has already been applied");
+        }
+    }
+
+}
@@ -1,12 +1,51 @@
 package com.randallscharpf.java.jconfigfile;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.AclFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.UserPrincipal;
+import java.time.Duration;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32C;
 
 /**
  * File-backed {@link Config} implementation.
@@ -15,14 +54,27 @@ import java.util.Set;
  * file-system. This implementation holds a lock on the backing file for from the
  * time of construction until the object is closed. Null keys and values are permitted
  * and passing `null` works in the same way as passing any actual string would.
+ * Unless the {@link Durability} is set to {@link Durability#NONE}, saving replaces
+ * the backing file with a new, already locked file rather than overwriting it.
  * 
- * The getter and setter methods in this config implementation are NOT thread-safe,
- * but the {@code save} method (and accordingly, the {@code close} method) are
- * synchronized. Both of these methods may require extensive I/O, so synchronizing
- * them makes it possible to call them from a helper thread where such blocking is
- * unacceptable. The getter and setter methods should not require extensive computation
- * or I/O and are not synchronized, users requiring multi-thread access must synchronize
- * externally. Users may use the {@code ConfigFile} itself as a synchronization key.
+ * Until the config is shared, the pairs are held in a hash map, and the getter and
+ * setter methods in this config implementation are NOT thread-safe. Users requiring
+ * multi-thread access must synchronize externally, and may use the {@code ConfigFile}
+ * itself as a synchronization key, which the atomic operations, such as
+ * {@code putIfAbsent} and {@code compute}, {@code update} and saving also hold
+ * while they run.
+ * 
+ * The config is shared from the first call to {@code snapshot} or {@code saveAsync},
+ * or from the start when write-behind saving or indexed values are enabled (see
+ * {@link ConfigFileOptions}). From then on the pairs are held in a persistent hash
+ * trie which each change replaces rather than changes, so the getter and setter
+ * methods are thread-safe without being synchronized: getters take no lock and
+ * always see a consistent set of pairs, setters on different threads never block
+ * one another, and snapshots and saves see the pairs as they were at one point in
+ * time without copying them. The {@code save} method (and accordingly, the
+ * {@code close} method) are synchronized. Both of these methods may require
+ * extensive I/O, so synchronizing them makes it possible to call them from a helper
+ * thread where such blocking is unacceptable.
  * 
  * The internal format of the backing file stores each key-value pair as a line of
  * text in the file. The key and value are separated by {@code =}. Both the key
@@ -31,11 +83,79 @@ import java.util.Set;
  */
 public class ConfigFile implements Config {
 
-    private final RandomAccessFile file;
-    private final FileLock fileLock;
+    private final File backingFile;
+    // replaced together with the backing file itself when the file is saved
+    private volatile FileChannel channel;
+    private volatile FileLock fileLock;
+    // cleared by close, so that the getters need not ask the lock whether it is still valid
+    private volatile boolean open;
     private final Object saveLock = new Object();
+    // identifies this config to the handles which cache its entries, without keeping it reachable
+    private final WeakReference<ConfigFile> self = new WeakReference<>(this);
+    // reused by every save so that steady-state saves allocate nothing, guarded by saveLock
+    private ByteBuffer saveBuffer;
+
+    // the largest save buffer kept between saves, so that a large file does not pin its size in memory
+    private static final int MAX_RETAINED_SAVE_BUFFER = 4 * 1024 * 1024;
+
+    // below this size, splitting the file costs more than parsing it in parallel saves
+    private static final long MIN_PARALLEL_CHUNK_SIZE = 1024 * 1024;
+
+    // reports write-behind failures which no handler was given for
+    private static final Logger LOGGER = Logger.getLogger(ConfigFile.class.getName());
 
-    private final Map<String, String> pairings;
+    // marks removal records while loading a journal, until the whole file has been read
+    private static final Entry REMOVED = new Entry((String) null);
+
+    private final boolean lazyValues;
+    private final boolean indexedValues;
+    private final Map<Entry, String> indexedValueCache;
+    private final SidecarCache sidecar;
+    private final boolean journal;
+    private final double compactionRatio;
+    private final Durability durability;
+    private final boolean incrementalSaves;
+    // the lines of the backing file as last written in incremental mode, guarded by saveLock
+    private String[] writtenKeys;
+    private Entry[] writtenEntries;
+    private long[] writtenOffsets;
+    private long writtenLength;
+    // fingerprint of the contents last written in full, guarded by saveLock
+    private boolean fingerprintKnown;
+    private long fingerprintLength;
+    private long fingerprintModified;
+    private int fingerprintChecksum;
+    private final Set<String> changedKeys = new HashSet<>();
+    private final Set<String> keys = new KeyView();
+    private long journalRecords;
+    private boolean compactionPending;
+    private boolean rewriteNeeded;
+    private final AtomicLong modifications = new AtomicLong();
+    private volatile long savedModifications;
+    private final boolean writeBehind;
+    private final long writeBehindDelay;
+    private final long writeBehindMaxDelay;
+    private final Consumer<? super Exception> writeBehindFailureHandler;
+    private final ScheduledExecutorService writeBehindScheduler;
+    private final Object writeBehindLock = new Object();
+    private ScheduledFuture<?> pendingSave;
+    private long firstUnsavedChange;
+    private volatile long lastChange;
+    private final Object asyncSaveLock = new Object();
+    private CompletableFuture<Void> runningSave;
+    private CompletableFuture<Void> queuedSave;
+    private Executor queuedSaveExecutor;
+    // a hash map until the config is shared, which replaces it with a hash trie for good, so
+    // that every change installs a new version of the trie and snapshots of it copy nothing
+    private volatile Map<String, Entry> pairings;
+    private final ConfigCounters counters = new ConfigCounters(this);
+    // held while an update is applied and while a save decides what it will write
+    private final Object editLock = new Object();
+    // updates which gave up retrying and wait for or hold editLock, which every change then takes too
+    private final AtomicInteger lockingUpdates = new AtomicInteger();
+
+    // the number of times an update tries to install its changes before holding off every other change
+    private static final int UPDATE_ATTEMPTS = 4;
 
     /**
      * Creates a new file-backed {@link Config} and holds it open.
@@ -51,27 +171,222 @@ public class ConfigFile implements Config {
      * @throws java.nio.channels.OverlappingFileLockException if the file cannot be locked
      */
     public ConfigFile(File persistentCopy) throws IOException {
+        this(persistentCopy, new ConfigFileOptions());
+    }
+
+    /**
+     * Creates a new file-backed {@link Config} with non-default settings and holds it open.
+     * 
+     * This constructor behaves like {@link ConfigFile#ConfigFile(File)}, except that
+     * the backing file is read and written as described by {@code options}.
+     * 
+     * @param persistentCopy backing file to read and write from
+     * @param options settings controlling how the backing file is read and written
+     * @throws IOException if the file permissions do not allow reading
+     * @throws java.nio.channels.OverlappingFileLockException if the file cannot be locked
+     * @throws IllegalArgumentException if the options combine a journal with indexed values
+     */
+    public ConfigFile(File persistentCopy, ConfigFileOptions options) throws IOException {
+        if (options.isJournal() && options.isIndexedValues()) {
+            throw new IllegalArgumentException("ConfigFile cannot use a journal together with indexed values");
+        }
         persistentCopy.getParentFile().mkdirs();
         persistentCopy.createNewFile();
-        this.file = new RandomAccessFile(persistentCopy, "rw");
-        this.fileLock = file.getChannel().tryLock();
-        if (fileLock == null) {
-            throw new IOException(String.format(
-                    "ConfigFile cannot open %s because another process has locked a portion of the file",
-                    persistentCopy.getAbsolutePath()
-            ));
-        }
-        this.pairings = new HashMap<>();
-        String line;
+        this.backingFile = persistentCopy;
+        lockBackingFile(persistentCopy);
+        this.lazyValues = options.isLazyValueDecoding();
+        this.indexedValues = options.isIndexedValues();
+        int cacheSize = options.getIndexedValueCacheSize();
+        this.indexedValueCache = new LinkedHashMap<Entry, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Entry, String> eldest) {
+                return size() > cacheSize;
+            }
+        };
+        this.journal = options.isJournal();
+        this.compactionRatio = options.getJournalCompactionRatio();
+        this.durability = options.getDurability();
+        this.incrementalSaves = options.isIncrementalSave() && !journal;
+        this.writeBehind = options.isWriteBehind();
+        this.writeBehindDelay = TimeUnit.MILLISECONDS.toNanos(options.getWriteBehindDelay());
+        this.writeBehindMaxDelay = TimeUnit.MILLISECONDS.toNanos(options.getWriteBehindMaxDelay());
+        this.writeBehindFailureHandler = options.getWriteBehindFailureHandler();
+        this.writeBehindScheduler = options.getWriteBehindScheduler();
+        this.sidecar = options.isSidecarCache() && !indexedValues ? new SidecarCache(persistentCopy) : null;
+        SidecarCache.Stamp stamp = null;
+        Map<String, Entry> loaded = null;
+        if (sidecar != null) {
+            stamp = SidecarCache.Stamp.of(persistentCopy, channel);
+            loaded = readSidecar(stamp);
+        }
+        if (loaded != null) {
+            this.journalRecords = loaded.size();
+        } else {
+            LongAdder records = new LongAdder();
+            loaded = parse(channel, options, records);
+            if (journal) {
+                loaded.values().removeIf(entry -> entry == REMOVED);
+            }
+            this.journalRecords = records.sum();
+            if (sidecar != null) {
+                writeSidecar(stamp, loaded.keySet().toArray(new String[loaded.size()]),
+                        loaded.values().toArray(new Entry[loaded.size()]));
+            }
+        }
+        // a write-behind save runs on another thread, and an indexed value is read from the file under saveLock,
+        // which must never be taken while an update holds the lock on this config
+        this.pairings = writeBehind || indexedValues ? new HashTrieMap<>(loaded) : loaded;
+        this.open = true;
+    }
+
+    /**
+     * Opens and locks the backing file, retrying if another process replaced it before the lock was taken.
+     * 
+     * Saving replaces the backing file with a new, already locked file and only
+     * then releases the lock on the old one, so a lock on the old file does not
+     * protect the file which is now at the path. The file at the path is compared
+     * before opening and after locking; on platforms which do not identify files
+     * by a key, this check is skipped.
+     */
+    private void lockBackingFile(File persistentCopy) throws IOException {
+        Path path = persistentCopy.toPath();
+        while (true) {
+            Object expected = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+            // opened this way so that the file can be replaced while open, even on Windows
+            FileChannel opened = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            FileLock lock;
+            try {
+                lock = opened.tryLock();
+            } catch (IOException | RuntimeException ex) {
+                opened.close();
+                throw ex;
+            }
+            if (lock == null) {
+                opened.close();
+                throw new IOException(String.format(
+                        "ConfigFile cannot open %s because another process has locked a portion of the file",
+                        persistentCopy.getAbsolutePath()
+                ));
+            }
+            if (expected == null || expected.equals(Files.readAttributes(path, BasicFileAttributes.class).fileKey())) {
+                this.channel = opened;
+                this.fileLock = lock;
+                return;
+            }
+            lock.release();
+            opened.close();
+        }
+    }
+
+    private Map<String, Entry> parse(FileChannel channel, ConfigFileOptions options, LongAdder records) throws IOException {
         // read key-value lines, which delineate key from value by the first = in the line
         // spacing in the key and value are preserved in our mapping
         // ignore comments (which start with ; in .ini), blank lines, and invalid lines
-        file.seek(0);
-        while ((line = file.readLine()) != null) {
-            String[] tokens = line.split("=");
-            if (line.length() > 0 && line.charAt(0) != ';' && tokens.length == 2) {
+        long size = channel.size();
+        boolean mapped = size >= options.getMappedReadThreshold() && size <= Integer.MAX_VALUE;
+        if (size >= options.getParallelLoadThreshold()) {
+            ForkJoinPool pool = options.getParallelLoadPool();
+            int chunks = (int) Math.max(1, Math.min(pool.getParallelism() * 4L, size / MIN_PARALLEL_CHUNK_SIZE));
+            return ConfigParser.parseParallel(channel, mapped ? ConfigParser.map(channel) : null, pool, chunks,
+                    partial -> new Loader(partial, records, false));
+        }
+        Map<String, Entry> loaded = new HashMap<>();
+        Loader loader = new Loader(loaded, records, false);
+        if (mapped) {
+            ConfigParser.parseMapped(channel, loader);
+        } else {
+            ConfigParser.parse(channel, ByteBuffer.allocateDirect(ConfigParser.DEFAULT_BUFFER_SIZE), loader);
+        }
+        return loaded;
+    }
+
+    private Map<String, Entry> readSidecar(SidecarCache.Stamp stamp) {
+        Map<String, Entry> cached = new HashMap<>();
+        boolean read = sidecar.read(stamp, new SidecarCache.PairHandler() {
+            @Override
+            public void pair(String key, String value) {
+                cached.put(key, new Entry(value));
+            }
+
+            @Override
+            public void encodedPair(String key, byte[] encodedValue) {
+                cached.put(key, lazyValues ? new Entry(encodedValue)
+                        : new Entry(HexCodec.decode(ByteBuffer.wrap(encodedValue), 0, encodedValue.length)));
+            }
+        });
+        return read ? cached : null;
+    }
+
+    private void writeSidecar(SidecarCache.Stamp stamp, String[] keys, Entry[] entries) {
+        // values which were never read are copied in their encoded form rather than decoded
+        sidecar.write(stamp, keys, new SidecarCache.Values() {
+            @Override
+            public boolean isEncoded(int index) {
+                return entries[index].isUndecoded();
+            }
+
+            @Override
+            public String value(int index) {
+                return entries[index].value();
+            }
+
+            @Override
+            public int encodedLength(int index) {
+                return entries[index].valueLength;
+            }
+
+            @Override
+            public void writeEncoded(int index, ByteBuffer destination) {
+                entries[index].writeUndecodedValue(destination);
+            }
+        });
+    }
+
+    /**
+     * Stores the pairs found by the tokenizer into a map, as entries of the kind selected by the options.
+     */
+    private final class Loader implements ConfigParser.PairHandler {
+
+        private final Map<String, Entry> target;
+        private final LongAdder records;
+        private final boolean keepEncoded;
+
+        Loader(Map<String, Entry> target, LongAdder records, boolean keepEncoded) {
+            this.target = target;
+            this.records = records;
+            this.keepEncoded = keepEncoded;
+        }
+
+        @Override
+        public void pair(ByteBuffer buffer, long bufferOffset, int keyFrom, int keyTo, int valueFrom, int valueTo) {
+            records.increment();
+            try {
+                String key = HexCodec.decode(buffer, keyFrom, keyTo);
+                if (!keepEncoded && !lazyValues && !indexedValues) {
+                    target.put(key, new Entry(HexCodec.decode(buffer, valueFrom, valueTo)));
+                } else if (!HexCodec.isValid(buffer, valueFrom, valueTo)) {
+                    // invalid line: skip parsing
+                } else if (!keepEncoded && indexedValues) {
+                    target.put(key, new Entry(bufferOffset + valueFrom, valueTo - valueFrom));
+                } else {
+                    byte[] encodedValue = new byte[valueTo - valueFrom];
+                    ByteBuffer value = buffer.duplicate();
+                    value.limit(valueTo);
+                    value.position(valueFrom);
+                    value.get(encodedValue);
+                    target.put(key, new Entry(encodedValue));
+                }
+            } catch(NumberFormatException ex) {
+                // invalid line: skip parsing
+            }
+        }
+
+        @Override
+        public void removal(ByteBuffer buffer, long bufferOffset, int keyFrom, int keyTo) {
+            if (journal) {
+                records.increment();
                 try {
-                    pairings.put(decode(tokens[0]), decode(tokens[1]));
+                    target.put(HexCodec.decode(buffer, keyFrom, keyTo), REMOVED);
                 } catch(NumberFormatException ex) {
                     // invalid line: skip parsing
                 }
@@ -81,12 +396,9 @@ public class ConfigFile implements Config {
 
     @Override
     public String getKeyOrDefault(String key, String fallback) {
-        if (fileLock != null && fileLock.isValid()) {
-            if (pairings.containsKey(key)) {
-                return pairings.get(key);
-            } else {
-                return fallback;
-            }
+        if (open) {
+            Entry entry = pairings.get(key);
+            return entry == null ? fallback : valueOf(entry);
         } else {
             throw new IllegalStateException("the file backing this config is not open");
         }
@@ -94,17 +406,198 @@ public class ConfigFile implements Config {
 
     @Override
     public void setKey(String key, String value) {
-        if (fileLock != null && fileLock.isValid()) {
-            pairings.put(key, value);
+        put(key, new Entry(value));
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * The parsed number is cached with the value until the key is next changed, so
+     * only the first read after a change parses the value.
+     */
+    @Override
+    public int getInt(String key, int fallback) {
+        return parsed(key, ParsedValue.Kind.INT).intValue(fallback);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * The parsed number is cached with the value until the key is next changed, so
+     * only the first read after a change parses the value.
+     */
+    @Override
+    public long getLong(String key, long fallback) {
+        return parsed(key, ParsedValue.Kind.LONG).longValue(fallback);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * The parsed number is cached with the value until the key is next changed, so
+     * only the first read after a change parses the value.
+     */
+    @Override
+    public double getDouble(String key, double fallback) {
+        return parsed(key, ParsedValue.Kind.DOUBLE).doubleValue(fallback);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * The parsed value is cached with the value until the key is next changed, so
+     * only the first read after a change parses the value.
+     */
+    @Override
+    public boolean getBoolean(String key, boolean fallback) {
+        return parsed(key, ParsedValue.Kind.BOOLEAN).booleanValue(fallback);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * The parsed duration is cached with the value until the key is next changed, so
+     * only the first read after a change parses the value.
+     */
+    @Override
+    public Duration getDuration(String key, Duration fallback) {
+        return parsed(key, ParsedValue.Kind.DURATION).durationValue(fallback);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * The number is also cached in its parsed form, so reading it back with
+     * {@code getInt} does not parse it.
+     */
+    @Override
+    public void setInt(String key, int value) {
+        put(key, new Entry(Integer.toString(value), ParsedValue.ofInt(value)));
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * The number is also cached in its parsed form, so reading it back with
+     * {@code getLong} does not parse it.
+     */
+    @Override
+    public void setLong(String key, long value) {
+        put(key, new Entry(Long.toString(value), ParsedValue.ofLong(value)));
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * The number is also cached in its parsed form, so reading it back with
+     * {@code getDouble} does not parse it.
+     */
+    @Override
+    public void setDouble(String key, double value) {
+        put(key, new Entry(Double.toString(value), ParsedValue.ofDouble(value)));
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * The value is also cached in its parsed form, so reading it back with
+     * {@code getBoolean} does not parse it.
+     */
+    @Override
+    public void setBoolean(String key, boolean value) {
+        put(key, new Entry(value ? "true" : "false", ParsedValue.ofBoolean(value)));
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * The duration is also cached in its parsed form, so reading it back with
+     * {@code getDuration} does not parse it.
+     */
+    @Override
+    public void setDuration(String key, Duration value) {
+        put(key, new Entry(value.toString(), ParsedValue.ofDuration(value)));
+    }
+
+    private void put(String key, Entry entry) {
+        if (open) {
+            pin(pairings.get(key));
+            forget(store(key, entry));
+            changed(key);
+        } else {
+            throw new IllegalStateException("the file backing this config is not open");
+        }
+    }
+
+    /**
+     * Reads a key through its handle, reusing the entry the handle found last time if nothing changed since.
+     */
+    Object read(ConfigKey<?> key) {
+        if (!open) {
+            throw new IllegalStateException("the file backing this config is not open");
+        }
+        Entry entry = lookup(key);
+        if (key.kind() == null) {
+            return entry == null ? key.getFallback() : valueOf(entry);
+        }
+        return parsed(entry, key.kind()).boxedValue(key.getFallback());
+    }
+
+    private Entry lookup(ConfigKey<?> key) {
+        Object cached = key.slot;
+        if (cached instanceof KeySlot) {
+            KeySlot slot = (KeySlot) cached;
+            if (slot.config == self) {
+                // an entry is marked stale once it leaves the trie, so changes to other keys keep it valid
+                if (!slot.entry.stale) {
+                    return slot.entry;
+                }
+            } else {
+                ConfigFile owner = slot.config.get();
+                if (owner != null && owner.open) {
+                    // the handle stays with the config it was first read from, rather than the two taking turns
+                    return pairings.get(key.getName());
+                }
+            }
+        }
+        Entry entry = pairings.get(key.getName());
+        // a missing key is not cached, since nothing would mark it stale when it is set
+        if (entry != null) {
+            key.slot = new KeySlot(self, entry);
+        }
+        return entry;
+    }
+
+    private ParsedValue parsed(String key, ParsedValue.Kind kind) {
+        if (open) {
+            return parsed(pairings.get(key), kind);
         } else {
             throw new IllegalStateException("the file backing this config is not open");
         }
     }
 
+    /**
+     * Returns the value of an entry, which may be {@code null}, parsed as the given type.
+     * 
+     * The result is cached in the entry. An entry holds one parsed value at a time,
+     * so reading a key as two different types parses it on every read.
+     */
+    private ParsedValue parsed(Entry entry, ParsedValue.Kind kind) {
+        if (entry == null) {
+            return ParsedValue.parse(kind, null);
+        }
+        ParsedValue cached = entry.parsed;
+        if (cached == null || cached.kind() != kind) {
+            cached = ParsedValue.parse(kind, valueOf(entry));
+            entry.parsed = cached;
+        }
+        return cached;
+    }
+
     @Override
     public Set<String> getKeys() {
-        if (fileLock != null && fileLock.isValid()) {
-            return pairings.keySet();
+        if (open) {
+            return keys;
         } else {
             throw new IllegalStateException("the file backing this config is not open");
         }
@@ -112,82 +605,1309 @@ public class ConfigFile implements Config {
     
     @Override
     public void removeKey(String key) {
-        if (fileLock != null && fileLock.isValid()) {
-            pairings.remove(key);
+        if (open) {
+            pin(pairings.get(key));
+            forget(store(key, null));
+            changed(key);
         } else {
             throw new IllegalStateException("the file backing this config is not open");
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * 
+     * The open check and the locking are done once for the whole group, and a save
+     * writes either all of the group or none of it. Until the config is shared, the
+     * group is applied with the lock on this config held. Once it is shared, the group
+     * is installed as one new version of the hash trie, so readers also see all of it
+     * or none of it, and the function is called again if another change was made while
+     * it ran. After a few such attempts, the update holds off every other change to
+     * this config while its function runs once more, so that a steady stream of changes
+     * cannot keep it from ever being installed.
+     */
     @Override
-    public void close() throws IOException {
-        if (fileLock != null && fileLock.isValid()) {
-            save();
-            fileLock.release();
-            file.close();
-        } else {
+    public void update(Consumer<? super ConfigEditor> edits) {
+        if (!open) {
             throw new IllegalStateException("the file backing this config is not open");
         }
-    }
-
-    @Override
-    public void save() throws IOException {
-        if (fileLock != null && fileLock.isValid()) {
-            // make a copy of the entries to handle concurrent modification of underlying map
-            Map.Entry<String, String>[] entries = pairings.entrySet().toArray(new Map.Entry[pairings.size()]);
-            // synchornize to handle concurrent modification of backing file
+        Map<String, Entry> current = pairings;
+        if (!(current instanceof HashTrieMap)) {
+            synchronized (this) {
+                current = pairings;
+                if (!(current instanceof HashTrieMap)) {
+                    // the map is not changed until the edits are finished, so it can serve as their base
+                    ConfigEdits pending = new ConfigEdits(new Snapshot(current));
+                    edits.accept(pending);
+                    pending.finish();
+                    if (pending.keys().isEmpty()) {
+                        return;
+                    }
+                    for (String key : pending.keys()) {
+                        forget(pending.removes(key) ? current.remove(key) : current.put(key, new Entry(pending.value(key))));
+                    }
+                    changed(pending.keys());
+                    return;
+                }
+            }
+        }
+        HashTrieMap<String, Entry> trie = (HashTrieMap<String, Entry>) current;
+        for (int attempt = 1; attempt < UPDATE_ATTEMPTS; attempt++) {
+            if (tryUpdate(trie, edits)) {
+                return;
+            }
+        }
+        // lost every race so far, so every other change is held off until this one is made
+        lockingUpdates.incrementAndGet();
+        try {
+            // taken before editLock, as saves do, since pinning a replaced indexed value reads the file
             synchronized (saveLock) {
-                file.seek(0);
-                for (Map.Entry<String, String> entry : entries) {
-                    file.writeBytes(encode(entry.getKey())+"="+encode(entry.getValue())+"\n");
+                synchronized (editLock) {
+                    while (!tryUpdate(trie, edits)) {
+                        // a change which began before the flag was raised got in first
+                    }
                 }
-                file.setLength(file.getFilePointer());
             }
-        } else {
+        } finally {
+            lockingUpdates.decrementAndGet();
+        }
+    }
+
+    /**
+     * Applies a group of changes to the current version of the trie, unless another change is installed first.
+     * 
+     * @return whether the changes were installed
+     */
+    private boolean tryUpdate(HashTrieMap<String, Entry> trie, Consumer<? super ConfigEditor> edits) {
+        Map<String, Entry> base = trie.snapshot();
+        ConfigEdits pending = new ConfigEdits(new Snapshot(base));
+        edits.accept(pending);
+        pending.finish();
+        if (pending.keys().isEmpty()) {
+            return true;
+        }
+        Map<String, Entry> changes = new LinkedHashMap<>();
+        for (String key : pending.keys()) {
+            pin(base.get(key));
+            changes.put(key, pending.removes(key) ? null : new Entry(pending.value(key)));
+        }
+        synchronized (editLock) {
+            if (!trie.commit(base, changes)) {
+                return false;
+            }
+            changed(pending.keys());
+        }
+        for (String key : pending.keys()) {
+            forget(base.get(key));
+        }
+        return true;
+    }
+
+    @Override
+    public boolean putIfAbsent(String key, String value) {
+        return remap(key, entry -> entry == null ? new Entry(value) : entry) != null;
+    }
+
+    @Override
+    public boolean replace(String key, String expected, String value) {
+        return remap(key, entry -> entry != null && Objects.equals(valueOf(entry), expected) ? new Entry(value) : entry) != null;
+    }
+
+    @Override
+    public String compute(String key, String fallback, UnaryOperator<String> remapping) {
+        return remap(key, entry -> new Entry(remapping.apply(entry == null ? fallback : valueOf(entry)))).value();
+    }
+
+    @Override
+    public String merge(String key, String value, BinaryOperator<String> remapping) {
+        return remap(key, entry -> new Entry(entry == null ? value : remapping.apply(valueOf(entry), value))).value();
+    }
+
+    /**
+     * Atomically replaces the entry of a key with one computed from its current entry.
+     * 
+     * The function is given the current entry, or {@code null} if the key is absent,
+     * and returns the same entry to leave the key unchanged. It is called again if
+     * another thread changed the config while it ran.
+     * 
+     * @return the new entry, or {@code null} if the key was left unchanged
+     */
+    private Entry remap(String key, UnaryOperator<Entry> remapping) {
+        if (!open) {
             throw new IllegalStateException("the file backing this config is not open");
         }
+        Entry[] replaced = new Entry[1];
+        Entry updated = computeEntry(key, entry -> {
+            Entry result = remapping.apply(entry);
+            if (result != entry) {
+                pin(entry);
+            }
+            replaced[0] = entry;
+            return result;
+        });
+        if (updated == replaced[0]) {
+            return null;
+        }
+        forget(replaced[0]);
+        changed(key);
+        return updated;
     }
 
     /**
-     * Encodes any string into a non-null string of only lowercase letters and digits.
+     * Atomically replaces the entry of a key, as {@link HashTrieMap#compute} does.
      * 
-     * Using this function guarantees special characters, punctuation, and control
-     * characters are not present in a string, ensuring encoded strings can be discerned
-     * from enclosing serialization and structural elements. Every input string maps
-     * to a unique encoded string.
+     * Until the config is shared, the lock on this config is held instead.
+     */
+    private Entry computeEntry(String key, UnaryOperator<Entry> remapping) {
+        Map<String, Entry> current = pairings;
+        if (!(current instanceof HashTrieMap)) {
+            synchronized (this) {
+                current = pairings;
+                if (!(current instanceof HashTrieMap)) {
+                    // entries are never null, so only an absent key left absent maps to null
+                    return current.compute(key, (unused, entry) -> remapping.apply(entry));
+                }
+            }
+        }
+        HashTrieMap<String, Entry> trie = (HashTrieMap<String, Entry>) current;
+        if (lockingUpdates.get() == 0) {
+            return trie.compute(key, remapping);
+        }
+        // the remapping pins the entry it replaces, which reads the file under saveLock
+        synchronized (saveLock) {
+            synchronized (editLock) {
+                return trie.compute(key, remapping);
+            }
+        }
+    }
+
+    /**
+     * Sets the entry of a key, or removes the key if the entry is {@code null}, and returns the entry it replaced.
      * 
-     * @param humanReadable any string to escape punctuation from
-     * @return a unique string containing only lowercase letters and digits
+     * While an update which lost too many races to other changes holds editLock,
+     * the change waits for it, so that the update does not lose again.
      */
-    public static String encode(String humanReadable) {
-        if (humanReadable == null) {
-            return "null";
+    private Entry store(String key, Entry entry) {
+        if (lockingUpdates.get() == 0) {
+            return entry == null ? pairings.remove(key) : pairings.put(key, entry);
         }
-        String hex = "";
-        for (int i = 0; i < humanReadable.length(); i++) {
-            hex += String.format("%02x", (int) humanReadable.charAt(i));
+        synchronized (editLock) {
+            return entry == null ? pairings.remove(key) : pairings.put(key, entry);
         }
-        return hex;
     }
 
     /**
-     * Reverses {@link ConfigFile#encode}.
+     * Moves the pairs into a hash trie, unless they are there already, so that other threads can share them.
+     */
+    private HashTrieMap<String, Entry> share() {
+        Map<String, Entry> current = pairings;
+        if (!(current instanceof HashTrieMap)) {
+            synchronized (this) {
+                current = pairings;
+                if (!(current instanceof HashTrieMap)) {
+                    current = new HashTrieMap<>(current);
+                    pairings = current;
+                }
+            }
+        }
+        return (HashTrieMap<String, Entry>) current;
+    }
+
+    /**
+     * {@inheritDoc}
      * 
-     * Strings which cannot have been created by {@link ConfigFile#encode}
-     * and are passed as input to this function may result in an exception being
-     * thrown or any value being returned.
+     * The counters are flushed at the start of every save, including write-behind
+     * saves. Adding to a counter does not make the config dirty or schedule a
+     * write-behind save by itself.
+     */
+    @Override
+    public ConfigCounter counter(String key) {
+        if (open) {
+            return counters.get(key);
+        } else {
+            throw new IllegalStateException("the file backing this config is not open");
+        }
+    }
+
+    /**
+     * {@inheritDoc}
      * 
-     * @param hex the encoded version of the string to decode
-     * @return the original string
+     * The first snapshot shares the config, which copies the pairs into a hash trie
+     * once. Later snapshots copy nothing, and neither does the next change, since the
+     * snapshot holds the current version of the trie. With indexed values (see
+     * {@link ConfigFileOptions#setIndexedValues}), the snapshot reads values from the
+     * backing file, so reading a value from it can throw an {@link UncheckedIOException}
+     * once this config has been closed; values which have since been changed in this
+     * config are kept in memory for the snapshot.
      */
-    public static String decode(String hex) {
-        if ("null".equals(hex)) {
-            return null;
+    @Override
+    public Config snapshot() {
+        if (open) {
+            return new Snapshot(share().snapshot());
+        } else {
+            throw new IllegalStateException("the file backing this config is not open");
         }
-        String humanReadable = "";
-        for (int i = 0; i + 1 < hex.length(); i += 2) {
-            humanReadable += (char) Integer.parseInt(hex.substring(i, i + 2), 16);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (open) {
+            cancelPendingSave();
+            save();
+            // a background compaction may be about to write to the file
+            synchronized (saveLock) {
+                open = false;
+                fileLock.release();
+                channel.close();
+                saveBuffer = null;
+            }
+        } else {
+            throw new IllegalStateException("the file backing this config is not open");
         }
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * If nothing has been set or removed since the file was loaded or last saved
+     * (that is, if {@link #isDirty} returns false), this method does not touch the
+     * backing file at all.
+     */
+    @Override
+    public void save() throws IOException {
+        if (open) {
+            persist(false);
+        } else {
+            throw new IllegalStateException("the file backing this config is not open");
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * Requests made while an asynchronous save is already running are coalesced:
+     * they all share a single save, which starts once the running one finishes and
+     * includes every change made before it starts. At most one asynchronous save of
+     * this config runs at a time.
+     */
+    @Override
+    public CompletableFuture<Void> saveAsync() {
+        return saveAsync(BackgroundTasks.IO_EXECUTOR);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * Requests made while an asynchronous save is already running are coalesced as
+     * described by {@link #saveAsync()}. The shared save runs on the executor given
+     * to the first of the coalesced requests.
+     */
+    @Override
+    public CompletableFuture<Void> saveAsync(Executor executor) {
+        // the save runs on another thread, which may read the pairs while they are changed
+        share();
+        CompletableFuture<Void> saved;
+        synchronized (asyncSaveLock) {
+            if (queuedSave != null) {
+                // the queued save has not started, so it includes this request's changes
+                return queuedSave;
+            }
+            saved = new CompletableFuture<>();
+            if (runningSave != null) {
+                queuedSave = saved;
+                queuedSaveExecutor = executor;
+                return saved;
+            }
+            runningSave = saved;
+        }
+        startAsyncSave(saved, executor);
+        return saved;
+    }
+
+    private void startAsyncSave(CompletableFuture<Void> saved, Executor executor) {
+        try {
+            executor.execute(() -> {
+                Exception failure = null;
+                try {
+                    save();
+                } catch (IOException | RuntimeException ex) {
+                    failure = ex;
+                }
+                // a request made once the future completes must start a new save
+                finishAsyncSave();
+                if (failure == null) {
+                    saved.complete(null);
+                } else {
+                    saved.completeExceptionally(failure);
+                }
+            });
+        } catch (RuntimeException ex) {
+            finishAsyncSave();
+            saved.completeExceptionally(ex);
+        }
+    }
+
+    private void finishAsyncSave() {
+        CompletableFuture<Void> next;
+        Executor executor;
+        synchronized (asyncSaveLock) {
+            next = queuedSave;
+            executor = queuedSaveExecutor;
+            runningSave = next;
+            queuedSave = null;
+            queuedSaveExecutor = null;
+        }
+        if (next != null) {
+            startAsyncSave(next, executor);
+        }
+    }
+
+    /**
+     * Writes every key-value pair to the backing file, even if nothing has changed.
+     * 
+     * This replaces the contents of the backing file with the pairs held in memory,
+     * which also undoes any changes made to the file by other programs and removes
+     * any comments or invalid lines from it. In journal mode, the file is rewritten
+     * rather than appended to.
+     * 
+     * @throws IOException if an I/O error occurs while writing the file
+     */
+    public void forceSave() throws IOException {
+        if (open) {
+            persist(true);
+        } else {
+            throw new IllegalStateException("the file backing this config is not open");
+        }
+    }
+
+    /**
+     * Saves any unsaved changes right away, without waiting for a write-behind save.
+     * 
+     * When write-behind saving is enabled (see {@link ConfigFileOptions#setWriteBehind}),
+     * this cancels the scheduled save and saves on the calling thread instead, so
+     * the changes have been written once this method returns. Otherwise, it is the
+     * same as {@link #save}.
+     * 
+     * @throws IOException if an I/O error occurs while writing the file
+     */
+    public void flushNow() throws IOException {
+        if (open) {
+            cancelPendingSave();
+            persist(false);
+        } else {
+            throw new IllegalStateException("the file backing this config is not open");
+        }
+    }
+
+    /**
+     * Checks whether any key has been set or removed since the file was loaded or last saved.
+     * 
+     * Setting a key to the value it already holds still counts as a change.
+     * 
+     * @return whether there are changes which have not been saved
+     */
+    public boolean isDirty() {
+        return modifications.get() != savedModifications;
+    }
+
+    private void persist(boolean force) throws IOException {
+        counters.flush();
+        if (!(pairings instanceof HashTrieMap)) {
+            // until the config is shared, saving holds the lock on it, so that no update is half written
+            synchronized (this) {
+                if (!(pairings instanceof HashTrieMap)) {
+                    persistLocked(force);
+                    return;
+                }
+            }
+        }
+        persistLocked(force);
+    }
+
+    /**
+     * Saves the pairs if anything changed since the last save, or if forced.
+     */
+    private void persistLocked(boolean force) throws IOException {
+        // the count, the snapshot and the write all happen under one lock, so that a save
+        // which took an older snapshot can never write it over the file of a newer one
+        synchronized (saveLock) {
+            if (!open) {
+                // closed by another thread, whose own save included every change made before it
+                return;
+            }
+            // changes made after this point leave the config dirty, even if the save includes them
+            long observed = modifications.get();
+            if (!force && observed == savedModifications) {
+                return;
+            }
+            if (journal && !force && !rewriteNeeded) {
+                appendChanges();
+            } else {
+                rewrite(force);
+            }
+            if (!rewriteNeeded && observed > savedModifications) {
+                savedModifications = observed;
+            }
+        }
+    }
+
+    /**
+     * Writes every pair to the backing file, with saveLock held.
+     */
+    private void rewrite(boolean force) throws IOException {
+        Map<String, Entry> current;
+        synchronized (editLock) {
+            if (journal) {
+                // every change made before the snapshot below is part of the rewritten file
+                synchronized (changedKeys) {
+                    changedKeys.clear();
+                }
+            }
+            current = currentPairs();
+        }
+        writeAll(current, force);
+    }
+
+    /**
+     * Returns the pairs in a map which does not change while a save writes it, with saveLock held.
+     * 
+     * Once the config is shared, this is a snapshot of the trie, which the setters
+     * cannot disturb. Until then, it is the map itself, which the save holds the lock
+     * on this config for.
+     */
+    private Map<String, Entry> currentPairs() {
+        Map<String, Entry> current = pairings;
+        return current instanceof HashTrieMap ? ((HashTrieMap<String, Entry>) current).snapshot() : current;
+    }
+
+    /**
+     * Writes the given pairs as the whole contents of the backing file.
+     * 
+     * In incremental mode, the keys are written in the order they were last written
+     * in, followed by any new keys, and the lines which are the same as when the
+     * file was last written are kept, so that only the rest of the file is written
+     * over in place.
+     * Otherwise, the file is not written at all if its new contents have the same
+     * length and checksum as the contents last written, and the file still has the
+     * size and modification time it was left with. A forced write skips both checks.
+     */
+    private void writeAll(Map<String, Entry> pairs, boolean force) throws IOException {
+        String[] keys = new String[pairs.size()];
+        Entry[] values = new Entry[keys.length];
+        int placed = 0;
+        if (incrementalSaves && writtenKeys != null) {
+            // the trie keeps no order of its own, so the order comes from the last write
+            for (String key : writtenKeys) {
+                Entry entry = pairs.get(key);
+                if (entry != null) {
+                    keys[placed] = key;
+                    values[placed++] = entry;
+                }
+            }
+        }
+        if (placed < keys.length) {
+            Set<String> written = placed > 0 ? new HashSet<>(Arrays.asList(writtenKeys)) : Collections.emptySet();
+            for (Map.Entry<String, Entry> pair : pairs.entrySet()) {
+                if (!written.contains(pair.getKey())) {
+                    keys[placed] = pair.getKey();
+                    values[placed++] = pair.getValue();
+                }
+            }
+        }
+        int unchanged = 0;
+        long from = 0;
+        // a file changed by another program is written in full
+        if (incrementalSaves && !force && writtenKeys != null && channel.size() == writtenLength) {
+            int common = Math.min(keys.length, writtenKeys.length);
+            while (unchanged < common && Objects.equals(keys[unchanged], writtenKeys[unchanged])
+                    && sameLine(keys[unchanged], values[unchanged], writtenEntries[unchanged])) {
+                unchanged++;
+            }
+            from = unchanged < writtenKeys.length ? writtenOffsets[unchanged] : writtenLength;
+        }
+        // build the rest of the file first, since indexed values are read from the old copy
+        long length = 0;
+        for (int i = unchanged; i < keys.length; i++) {
+            length += lineLength(keys[i], values[i]);
+        }
+        if (from + length > Integer.MAX_VALUE) {
+            throw new IOException("ConfigFile cannot save more than 2 GiB of key-value pairs");
+        }
+        ByteBuffer contents = saveBuffer((int) length);
+        long[] lineOffsets = new long[keys.length];
+        long[] valueOffsets = new long[keys.length];
+        for (int i = unchanged; i < keys.length; i++) {
+            lineOffsets[i] = from + contents.position();
+            if (values[i].isIndexed()) {
+                HexCodec.encode(keys[i], contents);
+                contents.put((byte) '=');
+                valueOffsets[i] = from + contents.position();
+                readFully(values[i], contents);
+                contents.put((byte) '\n');
+            } else {
+                // unchanged entries reuse the line encoded by an earlier save
+                contents.put(values[i].line(keys[i]));
+            }
+        }
+        contents.flip();
+        int checksum = 0;
+        boolean identical;
+        if (from > 0) {
+            identical = from == writtenLength && length == 0;
+            if (!identical) {
+                overwriteFile(contents, from);
+            }
+            fingerprintKnown = false;
+        } else {
+            CRC32C crc = new CRC32C();
+            crc.update(contents.duplicate());
+            checksum = (int) crc.getValue();
+            identical = !force && fingerprintKnown && fingerprintChecksum == checksum && fingerprintLength == length
+                    && channel.size() == length && backingFile.lastModified() == fingerprintModified;
+            if (!identical && (durability == Durability.NONE || !replaceFile(contents))) {
+                contents.rewind();
+                overwriteFile(contents, 0);
+            }
+            fingerprintKnown = true;
+            fingerprintLength = length;
+            fingerprintModified = backingFile.lastModified();
+            fingerprintChecksum = checksum;
+        }
+        for (int i = unchanged; i < keys.length; i++) {
+            if (values[i].isIndexed()) {
+                values[i].valueOffset = valueOffsets[i];
+            }
+        }
+        if (incrementalSaves) {
+            if (unchanged > 0) {
+                System.arraycopy(writtenOffsets, 0, lineOffsets, 0, unchanged);
+            }
+            writtenKeys = keys;
+            writtenEntries = values;
+            writtenOffsets = lineOffsets;
+            writtenLength = from + length;
+        }
+        if (sidecar != null && !identical) {
+            SidecarCache.Stamp stamp = from > 0 ? SidecarCache.Stamp.of(backingFile, channel)
+                    : new SidecarCache.Stamp(length, backingFile.lastModified(), checksum);
+            writeSidecar(stamp, keys, values);
+        }
+        journalRecords = keys.length;
+        rewriteNeeded = false;
+    }
+
+    /**
+     * Returns the save buffer, cleared and limited to the given length.
+     * 
+     * The buffer is a direct buffer, so the channel can write it without first
+     * copying it into a temporary direct buffer of its own. It only ever grows, by
+     * at least doubling, so a config saved over and over allocates it only a few
+     * times. It is kept only up to {@link #MAX_RETAINED_SAVE_BUFFER}: longer
+     * contents get a buffer of their own, which is dropped once the save is done,
+     * so that a large indexed or mapped config does not keep a copy of its whole file.
+     */
+    private ByteBuffer saveBuffer(int length) {
+        if (length > MAX_RETAINED_SAVE_BUFFER) {
+            return ByteBuffer.allocateDirect(length);
+        }
+        if (saveBuffer == null || saveBuffer.capacity() < length) {
+            int capacity = Math.min(MAX_RETAINED_SAVE_BUFFER, Math.max(length,
+                    saveBuffer == null ? ConfigParser.DEFAULT_BUFFER_SIZE : 2 * saveBuffer.capacity()));
+            saveBuffer = ByteBuffer.allocateDirect(capacity);
+        }
+        saveBuffer.clear();
+        saveBuffer.limit(length);
+        return saveBuffer;
+    }
+
+    /**
+     * Writes new contents over the backing file in place, starting from the given position.
+     */
+    private void overwriteFile(ByteBuffer contents, long from) throws IOException {
+        while (contents.hasRemaining()) {
+            channel.write(contents, from + contents.position());
+        }
+        channel.truncate(from + contents.limit());
+        if (durability.compareTo(Durability.FSYNC) >= 0) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Writes new contents to a locked temporary file, then moves it over the backing file.
+     * 
+     * The temporary file is locked before it is written, and its lock is kept as the
+     * lock on the backing file once it has been moved, so other programs cannot
+     * open the backing file at any point in between. If the backing file is a
+     * symbolic link, the file it points to is replaced instead of the link. The
+     * temporary file is given the owner, group and permissions of the backing file
+     * before anything is written to it. It is created under a new name, so no
+     * other file is ever truncated or deleted by a save.
+     * 
+     * @return whether the file was replaced, or {@code false} if the file system cannot move it atomically,
+     *     the temporary file cannot be created or the owner of the backing file cannot be kept
+     */
+    private boolean replaceFile(ByteBuffer contents) throws IOException {
+        Path target = backingFile.toPath().toRealPath();
+        Path temporary;
+        try {
+            // created new and, on POSIX file systems, readable only by its owner until it is given the permissions of the original
+            temporary = Files.createTempFile(target.getParent(), target.getFileName() + ".", ".tmp");
+        } catch (IOException ex) {
+            // the directory may not be writable even though the file is, so the original has to be overwritten in place
+            return false;
+        }
+        FileChannel replacement;
+        try {
+            replacement = FileChannel.open(temporary, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException | RuntimeException ex) {
+            Files.deleteIfExists(temporary);
+            throw ex;
+        }
+        FileLock replacementLock;
+        try {
+            replacementLock = replacement.tryLock();
+            if (replacementLock == null) {
+                throw new IOException(String.format(
+                        "ConfigFile cannot save %s because another process has locked a portion of %s",
+                        target, temporary
+                ));
+            }
+            if (!copyAttributes(target, temporary)) {
+                replacement.close();
+                Files.deleteIfExists(temporary);
+                return false;
+            }
+            while (contents.hasRemaining()) {
+                replacement.write(contents);
+            }
+            if (durability.compareTo(Durability.FSYNC) >= 0) {
+                replacement.force(true);
+            }
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            replacement.close();
+            Files.deleteIfExists(temporary);
+            return false;
+        } catch (IOException | RuntimeException ex) {
+            replacement.close();
+            Files.deleteIfExists(temporary);
+            throw ex;
+        }
+        FileChannel replaced = channel;
+        FileLock replacedLock = fileLock;
+        channel = replacement;
+        fileLock = replacementLock;
+        replacedLock.release();
+        replaced.close();
+        if (durability == Durability.FSYNC_DIR) {
+            try (FileChannel directory = FileChannel.open(target.getParent(), StandardOpenOption.READ)) {
+                directory.force(true);
+            } catch (IOException ex) {
+                // some platforms, such as Windows, cannot open a directory to force it
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gives a file the owner, group and permissions (or access control list) of another.
+     * 
+     * @return whether they could be copied, which requires privileges if the owner differs
+     */
+    private static boolean copyAttributes(Path source, Path destination) throws IOException {
+        try {
+            PosixFileAttributeView posix = Files.getFileAttributeView(destination, PosixFileAttributeView.class);
+            if (posix != null) {
+                PosixFileAttributes original = Files.readAttributes(source, PosixFileAttributes.class);
+                PosixFileAttributes copy = posix.readAttributes();
+                if (!original.owner().equals(copy.owner())) {
+                    posix.setOwner(original.owner());
+                }
+                if (!original.group().equals(copy.group())) {
+                    posix.setGroup(original.group());
+                }
+                posix.setPermissions(original.permissions());
+                return true;
+            }
+            AclFileAttributeView acl = Files.getFileAttributeView(destination, AclFileAttributeView.class);
+            if (acl != null) {
+                UserPrincipal owner = Files.getOwner(source);
+                if (!owner.equals(acl.getOwner())) {
+                    acl.setOwner(owner);
+                }
+                acl.setAcl(Files.getFileAttributeView(source, AclFileAttributeView.class).getAcl());
+            }
+            return true;
+        } catch (FileSystemException ex) {
+            // not allowed to hand the file to another user, so the original has to be overwritten in place
+            return false;
+        }
+    }
+
+    /**
+     * Appends a record of each key changed since the last save to the end of the backing file, with saveLock held.
+     */
+    private void appendChanges() throws IOException {
+        String[] changed;
+        Entry[] entries;
+        // an update is either wholly recorded in this append or wholly left for the next one
+        synchronized (editLock) {
+            synchronized (changedKeys) {
+                changed = changedKeys.toArray(new String[changedKeys.size()]);
+                changedKeys.clear();
+            }
+            Map<String, Entry> current = currentPairs();
+            entries = new Entry[changed.length];
+            for (int i = 0; i < changed.length; i++) {
+                entries[i] = current.get(changed[i]);
+            }
+        }
+        if (changed.length == 0) {
+            return;
+        }
+        long length = 0;
+        for (int i = 0; i < changed.length; i++) {
+            length += entries[i] != null ? lineLength(changed[i], entries[i]) : HexCodec.encodedLength(changed[i]) + 2;
+        }
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("ConfigFile cannot save more than 2 GiB of key-value pairs");
+        }
+        long end = channel.size();
+        ByteBuffer records = saveBuffer((int) length);
+        for (int i = 0; i < changed.length; i++) {
+            if (entries[i] != null) {
+                records.put(entries[i].line(changed[i]));
+            } else {
+                // a key followed by = and nothing else records its removal
+                HexCodec.encode(changed[i], records);
+                records.put((byte) '=');
+                records.put((byte) '\n');
+            }
+        }
+        records.flip();
+        while (records.hasRemaining()) {
+            channel.write(records, end + records.position());
+        }
+        if (durability.compareTo(Durability.FSYNC) >= 0) {
+            channel.force(false);
+        }
+        journalRecords += changed.length;
+        if (!compactionPending && journalRecords - pairings.size() > compactionRatio * journalRecords) {
+            compactionPending = true;
+            BackgroundTasks.EXECUTOR.execute(this::compact);
+        }
+    }
+
+    /**
+     * Rewrites the backing file without the records made obsolete by later ones.
+     * 
+     * The records are replayed from the file itself rather than copied from memory,
+     * since this runs on a background thread while the owner of this config may be
+     * changing it. Changes which have not been saved yet are still appended later.
+     * If compaction fails, the next save rewrites the file from memory instead.
+     */
+    private void compact() {
+        synchronized (saveLock) {
+            compactionPending = false;
+            if (!open) {
+                return;
+            }
+            try {
+                Map<String, Entry> replayed = new HashMap<>();
+                ConfigParser.parse(channel, ByteBuffer.allocateDirect(ConfigParser.DEFAULT_BUFFER_SIZE),
+                        new Loader(replayed, new LongAdder(), true));
+                replayed.values().removeIf(entry -> entry == REMOVED);
+                writeAll(replayed, true);
+            } catch (IOException ex) {
+                // the file may be half-written, so the next save must rewrite all of it
+                rewriteNeeded = true;
+                savedModifications = -1;
+            }
+        }
+    }
+
+    private void changed(String key) {
+        // recorded before it is counted, so that a save which sees the count also appends the key
+        if (journal) {
+            synchronized (changedKeys) {
+                changedKeys.add(key);
+            }
+        }
+        modifications.incrementAndGet();
+        if (writeBehind) {
+            scheduleSave();
+        }
+    }
+
+    /**
+     * Records a group of keys changed by one update, doing the bookkeeping once for the group.
+     */
+    private void changed(Collection<String> keys) {
+        if (journal) {
+            synchronized (changedKeys) {
+                changedKeys.addAll(keys);
+            }
+        }
+        modifications.incrementAndGet();
+        if (writeBehind) {
+            scheduleSave();
+        }
+    }
+
+    /**
+     * Makes sure a write-behind save is scheduled for the change just made.
+     * 
+     * Rather than rescheduling the save on every change, the scheduled task checks
+     * when the last change was made and schedules itself again if it ran too early.
+     */
+    private void scheduleSave() {
+        long now = System.nanoTime();
+        lastChange = now;
+        synchronized (writeBehindLock) {
+            if (pendingSave == null) {
+                firstUnsavedChange = now;
+                long wait = Math.min(writeBehindDelay, writeBehindMaxDelay);
+                pendingSave = writeBehindScheduler.schedule(this::saveBehind, wait, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    private void saveBehind() {
+        synchronized (writeBehindLock) {
+            if (pendingSave == null) {
+                return;
+            }
+            long wait = Math.min(lastChange + writeBehindDelay, firstUnsavedChange + writeBehindMaxDelay) - System.nanoTime();
+            if (wait > 0) {
+                pendingSave = writeBehindScheduler.schedule(this::saveBehind, wait, TimeUnit.NANOSECONDS);
+                return;
+            }
+            pendingSave = null;
+        }
+        try {
+            persist(false);
+        } catch (IOException | RuntimeException ex) {
+            // the config stays dirty, so the next change or explicit save tries again
+            if (writeBehindFailureHandler != null) {
+                writeBehindFailureHandler.accept(ex);
+            } else {
+                LOGGER.log(Level.WARNING, String.format(
+                        "ConfigFile could not save %s in the background", backingFile.getAbsolutePath()), ex);
+            }
+        }
+    }
+
+    private void cancelPendingSave() {
+        synchronized (writeBehindLock) {
+            if (pendingSave != null) {
+                pendingSave.cancel(false);
+                pendingSave = null;
+            }
+        }
+    }
+
+    /**
+     * Set view of the keys which keeps the entry bookkeeping correct when keys are removed through it.
+     */
+    private final class KeyView extends AbstractSet<String> {
+
+        @Override
+        public int size() {
+            return pairings.size();
+        }
+
+        @Override
+        public boolean contains(Object key) {
+            return pairings.containsKey(key);
+        }
+
+        @Override
+        public boolean remove(Object key) {
+            if (!pairings.containsKey(key)) {
+                return false;
+            }
+            removeKey((String) key);
+            return true;
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+            // iterates over the version of the trie current when the iterator was created, or
+            // over the map itself until the config is shared
+            Map<String, Entry> pairs = pairings;
+            boolean shared = pairs instanceof HashTrieMap;
+            Iterator<Map.Entry<String, Entry>> entries = shared
+                    ? ((HashTrieMap<String, Entry>) pairs).snapshot().entrySet().iterator()
+                    : pairs.entrySet().iterator();
+            return new Iterator<String>() {
+                private Map.Entry<String, Entry> current;
+                private boolean removable;
+
+                @Override
+                public boolean hasNext() {
+                    return entries.hasNext();
+                }
+
+                @Override
+                public String next() {
+                    current = entries.next();
+                    removable = true;
+                    return current.getKey();
+                }
+
+                @Override
+                public void remove() {
+                    if (!removable) {
+                        throw new IllegalStateException();
+                    }
+                    removable = false;
+                    if (shared) {
+                        removeKey(current.getKey());
+                    } else if (open) {
+                        // removed through the iterator, which removing it from the map would break
+                        entries.remove();
+                        forget(current.getValue());
+                        changed(current.getKey());
+                    } else {
+                        throw new IllegalStateException("the file backing this config is not open");
+                    }
+                }
+            };
+        }
+    }
+
+    /**
+     * Read-only view of the pairs at one instant, sharing its entries with the config.
+     */
+    private final class Snapshot extends ConfigSnapshot<Entry> {
+
+        Snapshot(Map<String, Entry> pairings) {
+            super(pairings);
+        }
+
+        @Override
+        String valueOf(Entry entry) {
+            return ConfigFile.this.valueOf(entry);
+        }
+
+        @Override
+        ParsedValue parsed(Entry entry, ParsedValue.Kind kind) {
+            return ConfigFile.this.parsed(entry, kind);
+        }
+    }
+
+    private String valueOf(Entry entry) {
+        return entry.isIndexed() ? readIndexedValue(entry) : entry.value();
+    }
+
+    /**
+     * Keeps the value of an indexed entry which is about to be replaced in memory.
+     * 
+     * Saving moves the values of the entries in the config, but not of entries which
+     * were replaced, so a snapshot still holding a replaced entry could no longer
+     * find its value in the backing file.
+     */
+    private void pin(Entry replaced) {
+        if (replaced != null && replaced.isIndexed() && !replaced.pinned) {
+            replaced.pin(readIndexedValue(replaced));
+        }
+    }
+
+    private String readIndexedValue(Entry entry) {
+        if (entry.pinned) {
+            return entry.pinnedValue;
+        }
+        synchronized (indexedValueCache) {
+            String cached = indexedValueCache.get(entry);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        ByteBuffer encodedValue = ByteBuffer.allocate(entry.valueLength);
+        // the value moves within the file when the file is saved
+        synchronized (saveLock) {
+            if (entry.pinned) {
+                // replaced and pinned by another thread, so the file may no longer hold it
+                return entry.pinnedValue;
+            }
+            try {
+                readFully(entry, encodedValue);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+        String value = HexCodec.decode(encodedValue, 0, entry.valueLength);
+        if (value != null) {
+            synchronized (indexedValueCache) {
+                indexedValueCache.put(entry, value);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Checks whether an entry would be written as the same line as the entry it replaced.
+     */
+    private static boolean sameLine(String key, Entry entry, Entry written) {
+        if (entry == written) {
+            return true;
+        } else if (entry.isIndexed() || written.isIndexed()) {
+            return false;
+        } else {
+            return Arrays.equals(entry.line(key), written.line(key));
+        }
+    }
+
+    private static long lineLength(String key, Entry entry) {
+        if (entry.isIndexed()) {
+            return HexCodec.encodedLength(key) + entry.valueLength + 2L;
+        } else {
+            return entry.line(key).length;
+        }
+    }
+
+    private void readFully(Entry entry, ByteBuffer destination) throws IOException {
+        ByteBuffer value = destination.duplicate();
+        value.limit(value.position() + entry.valueLength);
+        while (value.hasRemaining()) {
+            long position = entry.valueOffset + value.position() - destination.position();
+            if (channel.read(value, position) < 0) {
+                throw new EOFException("the file backing this config was changed by another program");
+            }
+        }
+        destination.position(value.position());
+    }
+
+    private void forget(Entry replaced) {
+        if (replaced != null) {
+            replaced.stale = true;
+        }
+        if (replaced != null && replaced.isIndexed()) {
+            synchronized (indexedValueCache) {
+                indexedValueCache.remove(replaced);
+            }
+        }
+    }
+
+    /**
+     * The entry a {@link ConfigKey} found in a config, valid until its key is next changed.
+     */
+    private static final class KeySlot {
+
+        private final WeakReference<ConfigFile> config;
+        private final Entry entry;
+
+        KeySlot(WeakReference<ConfigFile> config, Entry entry) {
+            this.config = config;
+            this.entry = entry;
+        }
+    }
+
+    /**
+     * Value associated with one key, which may be held in its encoded form until it is read.
+     * 
+     * Indexed entries hold only the location of their encoded value in the backing
+     * file, and are read with the help of the enclosing {@code ConfigFile}. Other
+     * entries keep the encoded line they were saved as, so that saving them again
+     * copies bytes instead of encoding them. Changing a key replaces its entry, which
+     * discards the cached line along with the old value.
+     */
+    private static final class Entry {
+
+        // compared by identity, so that they cannot be confused with any decoded value
+        private static final String UNDECODED = new String("undecoded");
+        private static final String INDEXED = new String("indexed");
+
+        // dropped once the line is cached, since the value is the end of the line
+        private volatile byte[] encodedValue;
+        private volatile byte[] line;
+        private final int valueLength;
+        private long valueOffset;
+        private String value;
+        // the value of a replaced indexed entry, read before the file moved it
+        private volatile String pinnedValue;
+        private volatile boolean pinned;
+        // the value as last read by a typed getter, which is dropped along with the entry
+        private volatile ParsedValue parsed;
+        // set once the entry is replaced or removed, so that handles caching it look the key up again
+        private volatile boolean stale;
+
+        Entry(String value) {
+            this.encodedValue = null;
+            this.valueLength = -1;
+            this.value = value;
+        }
+
+        Entry(String value, ParsedValue parsed) {
+            this(value);
+            this.parsed = parsed;
+        }
+
+        Entry(byte[] encodedValue) {
+            this.encodedValue = encodedValue;
+            this.valueLength = encodedValue.length;
+            this.value = UNDECODED;
+        }
+
+        Entry(long valueOffset, int valueLength) {
+            this.encodedValue = null;
+            this.valueLength = valueLength;
+            this.valueOffset = valueOffset;
+            this.value = INDEXED;
+        }
+
+        boolean isIndexed() {
+            return value == INDEXED;
+        }
+
+        boolean isUndecoded() {
+            return value == UNDECODED;
+        }
+
+        void pin(String indexedValue) {
+            pinnedValue = indexedValue;
+            pinned = true;
+        }
+
+        String value() {
+            String decoded = value;
+            if (decoded == UNDECODED) {
+                byte[] encoded = encodedValue;
+                if (encoded != null) {
+                    decoded = HexCodec.decode(ByteBuffer.wrap(encoded), 0, valueLength);
+                } else {
+                    encoded = line;
+                    decoded = HexCodec.decode(ByteBuffer.wrap(encoded), encoded.length - 1 - valueLength, encoded.length - 1);
+                }
+                value = decoded;
+            }
+            return decoded;
+        }
+
+        /**
+         * Returns the encoded line holding the key and the value of a non-indexed entry.
+         * 
+         * The line is encoded the first time it is needed and kept from then on.
+         */
+        byte[] line(String key) {
+            byte[] cached = line;
+            if (cached == null) {
+                cached = new byte[HexCodec.encodedLength(key) + 1 + encodedLength() + 1];
+                ByteBuffer destination = ByteBuffer.wrap(cached);
+                HexCodec.encode(key, destination);
+                destination.put((byte) '=');
+                writeEncodedValue(destination);
+                destination.put((byte) '\n');
+                line = cached;
+                encodedValue = null;
+            }
+            return cached;
+        }
+
+        int encodedLength() {
+            return valueLength >= 0 ? valueLength : HexCodec.encodedLength(value);
+        }
+
+        /**
+         * Writes the encoded value of a non-indexed entry.
+         * 
+         * Values which were read from the file and never changed are written back
+         * in their original encoded form.
+         */
+        void writeEncodedValue(ByteBuffer destination) {
+            byte[] encoded = encodedValue;
+            if (encoded != null) {
+                destination.put(encoded);
+            } else {
+                HexCodec.encode(value, destination);
+            }
+        }
+
+        /**
+         * Writes the encoded value of an entry read from the file, copying it out of the cached line if there is one.
+         */
+        void writeUndecodedValue(ByteBuffer destination) {
+            byte[] encoded = encodedValue;
+            if (encoded != null) {
+                destination.put(encoded);
+            } else {
+                // the line is cached before the encoded value is dropped
+                encoded = line;
+                destination.put(encoded, encoded.length - 1 - valueLength, valueLength);
+            }
+        }
+    }
+
+    /**
+     * Encodes any string into a non-null string of only lowercase letters and digits.
+     * 
+     * Using this function guarantees special characters, punctuation, and control
+     * characters are not present in a string, ensuring encoded strings can be discerned
+     * from enclosing serialization and structural elements. Every input string maps
+     * to a unique encoded string.
+     * 
+     * @param humanReadable any string to escape punctuation from
+     * @return a unique string containing only lowercase letters and digits
+     */
+    public static String encode(String humanReadable) {
+        return HexCodec.encode(humanReadable);
+    }
+
+    /**
+     * Appends the result of {@link ConfigFile#encode(String)} to a {@link StringBuilder}.
+     * 
+     * The builder's capacity is grown once to fit the encoded string, so no temporary
+     * strings are created.
+     * 
+     * @param humanReadable any string to escape punctuation from
+     * @param out the builder to append the encoded string to
+     */
+    public static void encode(String humanReadable, StringBuilder out) {
+        HexCodec.encode(humanReadable, out);
+    }
+
+    /**
+     * Writes the result of {@link ConfigFile#encode(String)} to a {@link ByteBuffer}.
+     * 
+     * The encoded string is written as one ASCII byte per character, starting at the
+     * buffer's current position, in the same form it takes in the backing file.
+     * 
+     * @param humanReadable any string to escape punctuation from
+     * @param out the buffer to write the encoded string to
+     * @throws java.nio.BufferOverflowException if the buffer does not have enough space remaining
+     */
+    public static void encode(String humanReadable, ByteBuffer out) {
+        HexCodec.encode(humanReadable, out);
+    }
+
+    /**
+     * Reverses {@link ConfigFile#encode}.
+     * 
+     * Strings which cannot have been created by {@link ConfigFile#encode}
+     * and are passed as input to this function may result in an exception being
+     * thrown or any value being returned.
+     * 
+     * @param hex the encoded version of the string to decode
+     * @return the original string
+     */
+    public static String decode(String hex) {
+        return HexCodec.decode(hex);
+    }
+
+    /**
+     * Reverses {@link ConfigFile#encode(String, ByteBuffer)}.
+     * 
+     * Decodes the bytes between the buffer's position and its limit, then advances the
+     * position to the limit. The same caveats about invalid input as in
+     * {@link ConfigFile#decode(String)} apply.
+     * 
+     * @param hex buffer holding the encoded version of the string to decode
+     * @return the original string
+     */
+    public static String decode(ByteBuffer hex) {
+        String humanReadable = HexCodec.decode(hex, hex.position(), hex.limit());
+        hex.position(hex.limit());
         return humanReadable;
     }
 
@@ -0,0 +1,537 @@
+package com.randallscharpf.java.jconfigfile;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Consumer;
+
+/**
+ * Settings controlling how a {@link ConfigFile} reads and writes its backing file.
+ *
+ * A new options object holds the defaults, which give the same behavior as the
+ * {@link ConfigFile#ConfigFile(java.io.File)} constructor. Each setter returns the
+ * options object so that several settings can be changed in one statement. A
+ * {@code ConfigFile} copies the settings it needs when it is constructed, so later
+ * changes to the options object do not affect configs which are already open.
+ */
+public class ConfigFileOptions {
+
+    private long mappedReadThreshold = Long.MAX_VALUE;
+    private boolean lazyValueDecoding = false;
+    private boolean indexedValues = false;
+    private int indexedValueCacheSize = 64;
+    private long parallelLoadThreshold = Long.MAX_VALUE;
+    private ForkJoinPool parallelLoadPool = ForkJoinPool.commonPool();
+    private boolean sidecarCache = false;
+    private boolean journal = false;
+    private double journalCompactionRatio = 0.5;
+    private Durability durability = Durability.NONE;
+    private boolean incrementalSave = false;
+    private boolean writeBehind = false;
+    private long writeBehindDelay = 1000;
+    private long writeBehindMaxDelay = 10000;
+    private Consumer<? super Exception> writeBehindFailureHandler = null;
+    private ScheduledExecutorService writeBehindScheduler = BackgroundTasks.EXECUTOR;
+
+    /**
+     * Creates a set of options holding the default settings.
+     */
+    public ConfigFileOptions() {
+        // defaults are set in the field declarations
+    }
+
+    /**
+     * Returns the size at which backing files are memory-mapped rather than read.
+     *
+     * @return the file size, in bytes, at which memory-mapped reads are used
+     * @see #setMappedReadThreshold
+     */
+    public long getMappedReadThreshold() {
+        return mappedReadThreshold;
+    }
+
+    /**
+     * Sets the size at which backing files are memory-mapped rather than read.
+     *
+     * Backing files at least this large are parsed directly from a read-only
+     * {@link java.nio.MappedByteBuffer} instead of being copied through a buffer on
+     * the Java heap. Files larger than 2 GiB are always read normally. By default,
+     * files are never memory-mapped.
+     *
+     * The mapping is released when it is garbage collected rather than when the
+     * config is closed. Some platforms, notably Windows, do not allow a mapped file
+     * to be truncated, so a {@code save} which shrinks the file may fail there until
+     * the mapping has been collected.
+     *
+     * @param mappedReadThreshold the file size, in bytes, at which memory-mapped reads are used
+     * @return these options
+     * @throws IllegalArgumentException if the threshold is negative
+     */
+    public ConfigFileOptions setMappedReadThreshold(long mappedReadThreshold) {
+        if (mappedReadThreshold < 0) {
+            throw new IllegalArgumentException("mapped read threshold cannot be negative");
+        }
+        this.mappedReadThreshold = mappedReadThreshold;
+        return this;
+    }
+
+    /**
+     * Returns whether values are decoded when they are first read rather than when the file is loaded.
+     *
+     * @return whether lazy value decoding is enabled
+     * @see #setLazyValueDecoding
+     */
+    public boolean isLazyValueDecoding() {
+        return lazyValueDecoding;
+    }
+
+    /**
+     * Sets whether values are decoded when they are first read rather than when the file is loaded.
+     *
+     * When enabled, only the keys of the backing file are decoded while it is loaded.
+     * Each value is kept in its encoded form until it is first read, and is then
+     * decoded once and remembered. Values which are never changed are written back to
+     * the file in their encoded form, without being decoded at all. This makes loading
+     * faster when a program reads only a small part of a large configuration, at the
+     * cost of keeping the encoded form of each value in memory. Lazy value decoding is
+     * disabled by default.
+     *
+     * @param lazyValueDecoding whether to enable lazy value decoding
+     * @return these options
+     */
+    public ConfigFileOptions setLazyValueDecoding(boolean lazyValueDecoding) {
+        this.lazyValueDecoding = lazyValueDecoding;
+        return this;
+    }
+
+    /**
+     * Returns whether values are left in the backing file and read from it when needed.
+     *
+     * @return whether indexed values are enabled
+     * @see #setIndexedValues
+     */
+    public boolean isIndexedValues() {
+        return indexedValues;
+    }
+
+    /**
+     * Sets whether values are left in the backing file and read from it when needed.
+     *
+     * When enabled, loading the backing file only decodes its keys and records where
+     * each value is stored in the file. Reading a key reads its value from the file,
+     * and the most recently read values are kept in a small cache (see
+     * {@link #setIndexedValueCacheSize}). Changed values are held in memory until the
+     * config is saved. This keeps memory use low for configurations with very large
+     * values, at the cost of file I/O when reading a value which is not cached.
+     * Saving still builds the new contents of the file in memory before writing them.
+     * Indexed values take precedence over lazy value decoding, and are disabled by
+     * default.
+     *
+     * @param indexedValues whether to enable indexed values
+     * @return these options
+     */
+    public ConfigFileOptions setIndexedValues(boolean indexedValues) {
+        this.indexedValues = indexedValues;
+        return this;
+    }
+
+    /**
+     * Returns the number of decoded values cached when indexed values are enabled.
+     *
+     * @return the maximum number of cached values
+     * @see #setIndexedValueCacheSize
+     */
+    public int getIndexedValueCacheSize() {
+        return indexedValueCacheSize;
+    }
+
+    /**
+     * Sets the number of decoded values cached when indexed values are enabled.
+     *
+     * The cache holds the most recently read values, so that reading them again does
+     * not need any file I/O. The default size is 64 values.
+     *
+     * @param indexedValueCacheSize the maximum number of cached values
+     * @return these options
+     * @throws IllegalArgumentException if the size is negative
+     */
+    public ConfigFileOptions setIndexedValueCacheSize(int indexedValueCacheSize) {
+        if (indexedValueCacheSize < 0) {
+            throw new IllegalArgumentException("indexed value cache size cannot be negative");
+        }
+        this.indexedValueCacheSize = indexedValueCacheSize;
+        return this;
+    }
+
+    /**
+     * Returns the size at which backing files are parsed in parallel.
+     *
+     * @return the file size, in bytes, at which parallel parsing is used
+     * @see #setParallelLoadThreshold
+     */
+    public long getParallelLoadThreshold() {
+        return parallelLoadThreshold;
+    }
+
+    /**
+     * Sets the size at which backing files are parsed in parallel.
+     *
+     * Backing files at least this large are split at line boundaries into chunks,
+     * which are parsed at the same time on the pool set by {@link #setParallelLoadPool}.
+     * The result is the same as parsing the file from start to end, including which
+     * value is kept for keys that appear more than once. Chunks are at least 1 MiB, so
+     * small files are parsed by a single task even when they exceed the threshold.
+     * By default, files are never parsed in parallel.
+     *
+     * @param parallelLoadThreshold the file size, in bytes, at which parallel parsing is used
+     * @return these options
+     * @throws IllegalArgumentException if the threshold is negative
+     */
+    public ConfigFileOptions setParallelLoadThreshold(long parallelLoadThreshold) {
+        if (parallelLoadThreshold < 0) {
+            throw new IllegalArgumentException("parallel load threshold cannot be negative");
+        }
+        this.parallelLoadThreshold = parallelLoadThreshold;
+        return this;
+    }
+
+    /**
+     * Returns the pool used to parse backing files in parallel.
+     *
+     * @return the pool used for parallel parsing
+     * @see #setParallelLoadPool
+     */
+    public ForkJoinPool getParallelLoadPool() {
+        return parallelLoadPool;
+    }
+
+    /**
+     * Sets the pool used to parse backing files in parallel.
+     *
+     * The file is split into about four chunks per thread of the pool. The default
+     * pool is {@link ForkJoinPool#commonPool()}.
+     *
+     * @param parallelLoadPool the pool to use for parallel parsing
+     * @return these options
+     * @throws NullPointerException if the pool is {@code null}
+     */
+    public ConfigFileOptions setParallelLoadPool(ForkJoinPool parallelLoadPool) {
+        if (parallelLoadPool == null) {
+            throw new NullPointerException("parallel load pool cannot be null");
+        }
+        this.parallelLoadPool = parallelLoadPool;
+        return this;
+    }
+
+    /**
+     * Returns whether a pre-decoded copy of the backing file is kept next to it.
+     *
+     * @return whether the sidecar cache is enabled
+     * @see #setSidecarCache
+     */
+    public boolean isSidecarCache() {
+        return sidecarCache;
+    }
+
+    /**
+     * Sets whether a pre-decoded copy of the backing file is kept next to it.
+     *
+     * When enabled, loading or saving the backing file also writes a binary file
+     * with the same name plus {@code .idx}, holding the decoded key-value pairs along
+     * with the size, modification time and checksum of the backing file. Loading
+     * then reads the pairs from that file when it still matches the backing file,
+     * which avoids parsing and decoding. When it does not match, for example because
+     * the backing file was edited, the backing file is parsed as usual. Checking the
+     * match still reads the whole backing file once to compute its checksum. The
+     * sidecar cache is not used with indexed values, and is disabled by default.
+     *
+     * @param sidecarCache whether to enable the sidecar cache
+     * @return these options
+     */
+    public ConfigFileOptions setSidecarCache(boolean sidecarCache) {
+        this.sidecarCache = sidecarCache;
+        return this;
+    }
+
+    /**
+     * Returns whether saving appends the changed keys to the backing file instead of rewriting it.
+     *
+     * @return whether the journal is enabled
+     * @see #setJournal
+     */
+    public boolean isJournal() {
+        return journal;
+    }
+
+    /**
+     * Sets whether saving appends the changed keys to the backing file instead of rewriting it.
+     *
+     * When enabled, {@code save} appends one line to the backing file for each key
+     * set or removed since the last save, so its cost depends on the number of
+     * changes rather than on the size of the configuration. A removed key is
+     * recorded as a line holding the encoded key followed by {@code =}. Loading
+     * replays the lines in order, so later lines replace earlier ones. Once the
+     * share of lines made obsolete by later lines passes the compaction ratio (see
+     * {@link #setJournalCompactionRatio}), the file is rewritten on a background
+     * thread to hold only the current pairs.
+     *
+     * A backing file written in this mode must also be read in this mode, since
+     * other modes ignore the removal lines. The journal cannot be combined with
+     * indexed values, and is disabled by default.
+     *
+     * @param journal whether to enable the journal
+     * @return these options
+     */
+    public ConfigFileOptions setJournal(boolean journal) {
+        this.journal = journal;
+        return this;
+    }
+
+    /**
+     * Returns the share of obsolete lines at which a journal is compacted.
+     *
+     * @return the compaction ratio, between 0 and 1
+     * @see #setJournalCompactionRatio
+     */
+    public double getJournalCompactionRatio() {
+        return journalCompactionRatio;
+    }
+
+    /**
+     * Sets the share of obsolete lines at which a journal is compacted.
+     *
+     * After each save in journal mode, the backing file is compacted if more than
+     * this share of its lines are set or removal records for keys which were set or
+     * removed again by a later line. The default ratio is 0.5, which keeps the file
+     * at most about twice as large as a freshly written one.
+     *
+     * @param journalCompactionRatio the compaction ratio, between 0 and 1
+     * @return these options
+     * @throws IllegalArgumentException if the ratio is not between 0 and 1
+     */
+    public ConfigFileOptions setJournalCompactionRatio(double journalCompactionRatio) {
+        if (!(journalCompactionRatio >= 0 && journalCompactionRatio <= 1)) {
+            throw new IllegalArgumentException("journal compaction ratio must be between 0 and 1");
+        }
+        this.journalCompactionRatio = journalCompactionRatio;
+        return this;
+    }
+
+    /**
+     * Returns how well saved contents are protected against crashes.
+     *
+     * @return the durability level of saves
+     * @see #setDurability
+     */
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * Sets how well saved contents are protected against crashes.
+     *
+     * Every level except {@link Durability#NONE} saves by writing the new contents
+     * to a new temporary file next to the backing file, named after it with a unique
+     * suffix ending in {@code .tmp}, and then moving it over the backing file. The
+     * temporary file is locked before it is written, so other programs are kept out
+     * of the backing file throughout the save. Replacing the file needs permission
+     * to write to its directory, and where it is missing, the backing file is
+     * overwritten in place instead. Appending to a journal (see {@link #setJournal})
+     * never replaces the file, but forces the appended records to the disk at the
+     * {@link Durability#FSYNC} level and above. The default level is
+     * {@link Durability#NONE}, which overwrites the backing file in place as
+     * {@link ConfigFile#ConfigFile(java.io.File)} always has.
+     *
+     * @param durability the durability level of saves
+     * @return these options
+     * @throws NullPointerException if the durability level is {@code null}
+     */
+    public ConfigFileOptions setDurability(Durability durability) {
+        if (durability == null) {
+            throw new NullPointerException("durability cannot be null");
+        }
+        this.durability = durability;
+        return this;
+    }
+
+    /**
+     * Returns whether saving only writes the part of the backing file which changed.
+     *
+     * @return whether incremental saving is enabled
+     * @see #setIncrementalSave
+     */
+    public boolean isIncrementalSave() {
+        return incrementalSave;
+    }
+
+    /**
+     * Sets whether saving only writes the part of the backing file which changed.
+     *
+     * When enabled, keys are written in a stable order, with newly added keys at
+     * the end, and the config remembers where in the backing file each line was
+     * written. A save then
+     * keeps every line up to the first key which was set or removed since the last
+     * save, and writes over the file in place from there. Adding new keys, the most
+     * common change, writes only the new lines. The result is the same, byte for
+     * byte, as writing the whole file. The first save after loading, saves made
+     * after another program changed the file, and {@code forceSave} write the
+     * whole file as usual.
+     *
+     * Writing over the file in place gives the protection of {@link Durability#NONE}
+     * against crashes, although the changed part is still forced to the disk at the
+     * {@link Durability#FSYNC} level and above. Incremental saving has no effect
+     * together with a journal (see {@link #setJournal}), which already only writes
+     * changes, and is disabled by default.
+     *
+     * @param incrementalSave whether to enable incremental saving
+     * @return these options
+     */
+    public ConfigFileOptions setIncrementalSave(boolean incrementalSave) {
+        this.incrementalSave = incrementalSave;
+        return this;
+    }
+
+    /**
+     * Returns whether changes are saved automatically on a background thread.
+     *
+     * @return whether write-behind saving is enabled
+     * @see #setWriteBehind
+     */
+    public boolean isWriteBehind() {
+        return writeBehind;
+    }
+
+    /**
+     * Sets whether changes are saved automatically on a background thread.
+     *
+     * When enabled, setting or removing a key schedules a save, which runs once no
+     * key has been changed for the write-behind delay (see {@link #setWriteBehindDelay}),
+     * or once the first unsaved change is as old as the maximum delay (see
+     * {@link #setWriteBehindMaxDelay}), whichever comes first. Many changes made in
+     * quick succession are therefore saved with a single write. Explicit calls to
+     * {@code save}, {@code flushNow} and {@code close} still save right away.
+     *
+     * If a background save fails, the error is passed to the write-behind failure
+     * handler (see {@link #setWriteBehindFailureHandler}), and the changes stay unsaved
+     * until the next change schedules another save or the config is saved explicitly.
+     * A background save writes a snapshot of the pairs, so other threads may keep
+     * changing the config while it runs. Write-behind saving is disabled by default.
+     *
+     * @param writeBehind whether to enable write-behind saving
+     * @return these options
+     */
+    public ConfigFileOptions setWriteBehind(boolean writeBehind) {
+        this.writeBehind = writeBehind;
+        return this;
+    }
+
+    /**
+     * Returns how long changes must stop before a write-behind save runs.
+     *
+     * @return the write-behind delay, in milliseconds
+     * @see #setWriteBehindDelay
+     */
+    public long getWriteBehindDelay() {
+        return writeBehindDelay;
+    }
+
+    /**
+     * Sets how long changes must stop before a write-behind save runs.
+     *
+     * Each change to a key restarts the delay. The default delay is one second.
+     *
+     * @param writeBehindDelay the write-behind delay, in milliseconds
+     * @return these options
+     * @throws IllegalArgumentException if the delay is negative
+     */
+    public ConfigFileOptions setWriteBehindDelay(long writeBehindDelay) {
+        if (writeBehindDelay < 0) {
+            throw new IllegalArgumentException("write-behind delay cannot be negative");
+        }
+        this.writeBehindDelay = writeBehindDelay;
+        return this;
+    }
+
+    /**
+     * Returns the longest time a change can wait for a write-behind save.
+     *
+     * @return the maximum write-behind delay, in milliseconds
+     * @see #setWriteBehindMaxDelay
+     */
+    public long getWriteBehindMaxDelay() {
+        return writeBehindMaxDelay;
+    }
+
+    /**
+     * Sets the longest time a change can wait for a write-behind save.
+     *
+     * Without this bound, a config changed more often than the write-behind delay
+     * would never be saved. The default maximum delay is ten seconds.
+     *
+     * @param writeBehindMaxDelay the maximum write-behind delay, in milliseconds
+     * @return these options
+     * @throws IllegalArgumentException if the maximum delay is negative
+     */
+    public ConfigFileOptions setWriteBehindMaxDelay(long writeBehindMaxDelay) {
+        if (writeBehindMaxDelay < 0) {
+            throw new IllegalArgumentException("maximum write-behind delay cannot be negative");
+        }
+        this.writeBehindMaxDelay = writeBehindMaxDelay;
+        return this;
+    }
+
+    /**
+     * Returns the scheduler which runs write-behind saves.
+     *
+     * @return the write-behind scheduler
+     * @see #setWriteBehindScheduler
+     */
+    public ScheduledExecutorService getWriteBehindScheduler() {
+        return writeBehindScheduler;
+    }
+
+    /**
+     * Sets the scheduler which runs write-behind saves.
+     *
+     * Each config has at most one write-behind save scheduled at a time, which
+     * schedules itself again if it finds that it ran too early. The default scheduler
+     * is a single daemon thread shared by all configs.
+     *
+     * @param writeBehindScheduler the scheduler to run write-behind saves on
+     * @return these options
+     * @throws NullPointerException if the scheduler is {@code null}
+     */
+    public ConfigFileOptions setWriteBehindScheduler(ScheduledExecutorService writeBehindScheduler) {
+        if (writeBehindScheduler == null) {
+            throw new NullPointerException("write-behind scheduler cannot be null");
+        }
+        this.writeBehindScheduler = writeBehindScheduler;
+        return this;
+    }
+
+    /**
+     * Returns what is told about write-behind saves which fail.
+     *
+     * @return the write-behind failure handler, or {@code null} if failures are logged
+     * @see #setWriteBehindFailureHandler
+     */
+    public Consumer<? super Exception> getWriteBehindFailureHandler() {
+        return writeBehindFailureHandler;
+    }
+
+    /**
+     * Sets what is told about write-behind saves which fail.
+     *
+     * The handler is called on the background thread which ran the save, with the
+     * {@link java.io.IOException} or runtime exception the save threw. Without a
+     * handler, which is the default, each failure is logged as a warning through
+     * {@link java.util.logging.Logger}, under the name of the {@link ConfigFile} class.
+     *
+     * @param writeBehindFailureHandler the write-behind failure handler, or {@code null} to log failures
+     * @return these options
+     */
+    public ConfigFileOptions setWriteBehindFailureHandler(Consumer<? super Exception> writeBehindFailureHandler) {
+        this.writeBehindFailureHandler = writeBehindFailureHandler;
+        return this;
+    }
+
+}
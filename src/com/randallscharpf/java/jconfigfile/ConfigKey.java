@@ -0,0 +1,192 @@
+package com.randallscharpf.java.jconfigfile;
+
+import java.time.Duration;
+
+/**
+ * Typed handle for one key, to be created once and used for every read of the key.
+ *
+ * A handle knows the name of its key, the type its value is parsed as, and the
+ * fallback to use when the key is missing or does not hold a value of that type.
+ * Handles are immutable apart from a cache used by {@link ConfigFile}, so they can
+ * be kept in constants and shared between threads, for example
+ * {@code static final ConfigKey<Integer> PORT = ConfigKey.intKey("port", 8080)}.
+ *
+ * Reading through a handle gives the same result as the matching typed getter,
+ * such as {@link Config#getInt}. With a {@code ConfigFile}, the handle also
+ * remembers where it found its value, so that until that key is next changed,
+ * reading it again takes no map lookup and, thanks to the parsed value cached with
+ * the value, no parsing and no allocation. A handle remembers this for a single
+ * open config, the first it is read from, and reads other configs with an ordinary
+ * lookup until that config is closed. The handle does not keep the config from
+ * being garbage collected.
+ *
+ * @param <T> the type of the value held by the key
+ */
+public final class ConfigKey<T> {
+
+    private final String name;
+    private final T fallback;
+    // null for keys holding plain strings
+    private final ParsedValue.Kind kind;
+    // where the key was last found, managed by the config it was found in
+    volatile Object slot;
+
+    private ConfigKey(String name, T fallback, ParsedValue.Kind kind) {
+        this.name = name;
+        this.fallback = fallback;
+        this.kind = kind;
+    }
+
+    /**
+     * Creates a handle for a key holding a string.
+     *
+     * @param name the key
+     * @param fallback the value to read if the key is not found
+     * @return a handle for the key
+     */
+    public static ConfigKey<String> stringKey(String name, String fallback) {
+        return new ConfigKey<>(name, fallback, null);
+    }
+
+    /**
+     * Creates a handle for a key holding an {@code int}, read as by {@link Config#getInt}.
+     *
+     * @param name the key
+     * @param fallback the number to read if the key is not found or is not an {@code int}
+     * @return a handle for the key
+     */
+    public static ConfigKey<Integer> intKey(String name, int fallback) {
+        return new ConfigKey<>(name, fallback, ParsedValue.Kind.INT);
+    }
+
+    /**
+     * Creates a handle for a key holding a {@code long}, read as by {@link Config#getLong}.
+     *
+     * @param name the key
+     * @param fallback the number to read if the key is not found or is not a {@code long}
+     * @return a handle for the key
+     */
+    public static ConfigKey<Long> longKey(String name, long fallback) {
+        return new ConfigKey<>(name, fallback, ParsedValue.Kind.LONG);
+    }
+
+    /**
+     * Creates a handle for a key holding a {@code double}, read as by {@link Config#getDouble}.
+     *
+     * @param name the key
+     * @param fallback the number to read if the key is not found or is not a {@code double}
+     * @return a handle for the key
+     */
+    public static ConfigKey<Double> doubleKey(String name, double fallback) {
+        return new ConfigKey<>(name, fallback, ParsedValue.Kind.DOUBLE);
+    }
+
+    /**
+     * Creates a handle for a key holding a {@code boolean}, read as by {@link Config#getBoolean}.
+     *
+     * @param name the key
+     * @param fallback the value to read if the key is not found or is not a {@code boolean}
+     * @return a handle for the key
+     */
+    public static ConfigKey<Boolean> booleanKey(String name, boolean fallback) {
+        return new ConfigKey<>(name, fallback, ParsedValue.Kind.BOOLEAN);
+    }
+
+    /**
+     * Creates a handle for a key holding a {@link Duration}, read as by {@link Config#getDuration}.
+     *
+     * @param name the key
+     * @param fallback the duration to read if the key is not found or is not a duration
+     * @return a handle for the key
+     */
+    public static ConfigKey<Duration> durationKey(String name, Duration fallback) {
+        return new ConfigKey<>(name, fallback, ParsedValue.Kind.DURATION);
+    }
+
+    /**
+     * Returns the key this handle reads and writes.
+     *
+     * @return the name of the key
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the value read when the key is missing or does not hold a value of the right type.
+     *
+     * @return the fallback value
+     */
+    public T getFallback() {
+        return fallback;
+    }
+
+    ParsedValue.Kind kind() {
+        return kind;
+    }
+
+    /**
+     * Reads the value of the key from a config.
+     *
+     * @param config the config to read from
+     * @return the value held by the key, or the fallback
+     */
+    @SuppressWarnings("unchecked")
+    public T get(Config config) {
+        if (config instanceof ConfigFile) {
+            return (T) ((ConfigFile) config).read(this);
+        }
+        if (kind == null) {
+            return (T) config.getKeyOrDefault(name, (String) fallback);
+        }
+        switch (kind) {
+            case INT:
+                return (T) (Integer) config.getInt(name, (Integer) fallback);
+            case LONG:
+                return (T) (Long) config.getLong(name, (Long) fallback);
+            case DOUBLE:
+                return (T) (Double) config.getDouble(name, (Double) fallback);
+            case BOOLEAN:
+                return (T) (Boolean) config.getBoolean(name, (Boolean) fallback);
+            default:
+                return (T) config.getDuration(name, (Duration) fallback);
+        }
+    }
+
+    /**
+     * Writes a value to the key in a config, as by the matching typed setter.
+     *
+     * @param config the config to write to
+     * @param value the value to associate with the key, which must not be {@code null}
+     *              unless the key holds a string
+     */
+    public void set(Config config, T value) {
+        if (kind == null) {
+            config.setKey(name, (String) value);
+            return;
+        }
+        switch (kind) {
+            case INT:
+                config.setInt(name, (Integer) value);
+                break;
+            case LONG:
+                config.setLong(name, (Long) value);
+                break;
+            case DOUBLE:
+                config.setDouble(name, (Double) value);
+                break;
+            case BOOLEAN:
+                config.setBoolean(name, (Boolean) value);
+                break;
+            default:
+                config.setDuration(name, (Duration) value);
+                break;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+}
@@ -1,9 +1,18 @@
 package com.randallscharpf.java.jconfigfile;
 
 import java.io.IOException;
+import java.util.AbstractSet;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
 
 /**
  * Map-backed {@link Config} implementation.
@@ -13,13 +22,34 @@ import java.util.Set;
  * 
  * Stores key-value pairs in a map object. Null keys and values are permitted
  * and passing `null` works in the same way as passing any actual string would.
- * The getter and setter methods in this config implementation are NOT thread-safe.
- * Users may use the {@code ConfigFile} itself as a synchronization key.
- * The {@code save} and {@code close} methods of this implementation are NOOPs.
+ * Until the first {@code snapshot} is taken, the pairs are held in a hash map and
+ * the getter and setter methods in this config implementation are NOT thread-safe.
+ * Users may use the {@code ConfigMap} itself as a synchronization key, which the
+ * atomic operations, such as {@code putIfAbsent} and {@code compute}, and
+ * {@code update} also hold while they run.
+ * 
+ * Taking a snapshot moves the pairs into a persistent hash trie, where they stay.
+ * Each change replaces the trie rather than changing it, so from then on the getter
+ * and setter methods are thread-safe without being synchronized, iterating over
+ * {@code getKeys} sees the keys as they were when the iteration began, and taking
+ * a snapshot copies nothing, since the snapshot holds the current version of the
+ * trie. The atomic operations and {@code update} install their changes with a
+ * compare-and-set, calling their function again if another thread changed the
+ * config meanwhile.
+ * 
+ * The {@code save} and {@code close} methods of this implementation do nothing
+ * but flush the counters handed out by {@code counter}, and {@code saveAsync}
+ * returns a future which has already completed.
  */
 public class ConfigMap implements Config {
 
-    private final Map<String, String> pairings;
+    // compared by identity, standing in for null values so that one lookup tells them from missing keys
+    private static final String NULL = new String("null");
+
+    // a hash map until the first snapshot, which replaces it with a hash trie for good
+    private volatile Map<String, String> pairings;
+    private final Set<String> keys = new KeyView();
+    private final ConfigCounters counters = new ConfigCounters(this);
 
     /**
      * Creates a new {@link Config} backed by a map object.
@@ -30,20 +60,18 @@ public class ConfigMap implements Config {
 
     @Override
     public void setKey(String key, String value) {
-        pairings.put(key, value);
+        pairings.put(key, mask(value));
     }
 
     @Override
     public String getKeyOrDefault(String key, String fallback) {
-        if (!pairings.containsKey(key)) {
-            return fallback;
-        }
-        return pairings.get(key);
+        String value = pairings.get(key);
+        return value == null ? fallback : unmask(value);
     }
 
     @Override
     public Set<String> getKeys() {
-        return pairings.keySet();
+        return keys;
     }
     
     @Override
@@ -51,14 +79,197 @@ public class ConfigMap implements Config {
         pairings.remove(key);
     }
 
+    @Override
+    public void update(Consumer<? super ConfigEditor> edits) {
+        Map<String, String> current = pairings;
+        if (!(current instanceof HashTrieMap)) {
+            synchronized (this) {
+                current = pairings;
+                if (!(current instanceof HashTrieMap)) {
+                    // the map is not changed until the edits are finished, so it can serve as their base
+                    ConfigEdits pending = new ConfigEdits(new Snapshot(current));
+                    edits.accept(pending);
+                    pending.finish();
+                    for (String key : pending.keys()) {
+                        if (pending.removes(key)) {
+                            current.remove(key);
+                        } else {
+                            current.put(key, mask(pending.value(key)));
+                        }
+                    }
+                    return;
+                }
+            }
+        }
+        HashTrieMap<String, String> trie = (HashTrieMap<String, String>) current;
+        while (true) {
+            Map<String, String> base = trie.snapshot();
+            ConfigEdits pending = new ConfigEdits(new Snapshot(base));
+            edits.accept(pending);
+            pending.finish();
+            Map<String, String> changes = new LinkedHashMap<>();
+            for (String key : pending.keys()) {
+                changes.put(key, pending.removes(key) ? null : mask(pending.value(key)));
+            }
+            if (changes.isEmpty() || trie.commit(base, changes)) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public boolean putIfAbsent(String key, String value) {
+        boolean[] added = new boolean[1];
+        remap(key, current -> {
+            added[0] = current == null;
+            return added[0] ? mask(value) : current;
+        });
+        return added[0];
+    }
+
+    @Override
+    public boolean replace(String key, String expected, String value) {
+        boolean[] replaced = new boolean[1];
+        remap(key, current -> {
+            replaced[0] = current != null && Objects.equals(unmask(current), expected);
+            return replaced[0] ? mask(value) : current;
+        });
+        return replaced[0];
+    }
+
+    @Override
+    public String compute(String key, String fallback, UnaryOperator<String> remapping) {
+        return unmask(remap(key, current -> mask(remapping.apply(current == null ? fallback : unmask(current)))));
+    }
+
+    @Override
+    public String merge(String key, String value, BinaryOperator<String> remapping) {
+        return unmask(remap(key, current -> mask(current == null ? value : remapping.apply(unmask(current), value))));
+    }
+
+    /**
+     * Atomically replaces the stored value of a key, as {@link HashTrieMap#compute} does.
+     * 
+     * Until the pairs are moved into the trie, the lock on this config is held instead.
+     */
+    private String remap(String key, UnaryOperator<String> remapping) {
+        Map<String, String> current = pairings;
+        if (!(current instanceof HashTrieMap)) {
+            synchronized (this) {
+                current = pairings;
+                if (!(current instanceof HashTrieMap)) {
+                    // stored values are never null, so only an absent key left absent maps to null
+                    return current.compute(key, (unused, stored) -> remapping.apply(stored));
+                }
+            }
+        }
+        return ((HashTrieMap<String, String>) current).compute(key, remapping);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * The first snapshot moves the pairs into a hash trie, which copies them once.
+     * Later snapshots copy nothing, and neither does the next change, since the
+     * snapshot holds the current version of the trie.
+     */
+    @Override
+    public Config snapshot() {
+        Map<String, String> current = pairings;
+        if (!(current instanceof HashTrieMap)) {
+            synchronized (this) {
+                current = pairings;
+                if (!(current instanceof HashTrieMap)) {
+                    current = new HashTrieMap<>(current);
+                    pairings = current;
+                }
+            }
+        }
+        return new Snapshot(((HashTrieMap<String, String>) current).snapshot());
+    }
+
+    @Override
+    public ConfigCounter counter(String key) {
+        return counters.get(key);
+    }
+
     @Override
     public void save() throws IOException {
-        // do nothing, as this map cannot be saved and serves as a fallback config
+        // this map cannot be saved and serves as a fallback config, but counters are still folded in
+        counters.flush();
+    }
+
+    @Override
+    public CompletableFuture<Void> saveAsync() {
+        counters.flush();
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public CompletableFuture<Void> saveAsync(Executor executor) {
+        // nothing to save, so there is no reason to involve the executor
+        counters.flush();
+        return CompletableFuture.completedFuture(null);
     }
 
     @Override
     public void close() throws IOException {
-        // do nothing, this uses no external resources
+        // this uses no external resources, but closing saves, which folds in the counters
+        counters.flush();
+    }
+
+    private static String mask(String value) {
+        return value == null ? NULL : value;
+    }
+
+    private static String unmask(String stored) {
+        return stored == NULL ? null : stored;
+    }
+
+    /**
+     * Read-only view of one version of the trie, which translates the null sentinel.
+     */
+    private static final class Snapshot extends ConfigSnapshot<String> {
+
+        Snapshot(Map<String, String> pairings) {
+            super(pairings);
+        }
+
+        @Override
+        String valueOf(String stored) {
+            return unmask(stored);
+        }
+    }
+
+    /**
+     * Set view of the keys, whose iterators work on the version of the trie they were created from once there is one.
+     */
+    private final class KeyView extends AbstractSet<String> {
+
+        @Override
+        public int size() {
+            return pairings.size();
+        }
+
+        @Override
+        public boolean contains(Object key) {
+            return pairings.containsKey(key);
+        }
+
+        @Override
+        public boolean remove(Object key) {
+            return pairings.remove(key) != null;
+        }
+
+        @Override
+        public void clear() {
+            pairings.clear();
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+            return pairings.keySet().iterator();
+        }
     }
 
 }
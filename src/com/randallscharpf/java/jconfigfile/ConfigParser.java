@@ -0,0 +1,363 @@
+package com.randallscharpf.java.jconfigfile;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Function;
+
+/**
+ * Single-pass tokenizer for the file format used by {@link ConfigFile}.
+ *
+ * The tokenizer works directly on the bytes of the file and reports the location
+ * of each key and value, so no text is created for a line unless the caller decodes
+ * it. The rules for which lines hold a key-value pair are the same as splitting each
+ * line returned by {@link java.io.RandomAccessFile#readLine} around {@code =} and
+ * keeping the lines with exactly two tokens:
+ * <ul>
+ * <li>Lines end at {@code \n}, {@code \r}, or {@code \r\n}.</li>
+ * <li>Blank lines and comments (lines starting with {@code ;}) are skipped.</li>
+ * <li>Trailing {@code =} characters are dropped, after which the line must contain
+ * exactly one {@code =}. The key (which may be empty) is everything before it and
+ * the value is everything after it.</li>
+ * </ul>
+ * Lines whose only {@code =} is their last character are reported separately as
+ * removal records, for use by the journal mode of {@link ConfigFile}.
+ */
+final class ConfigParser {
+
+    /**
+     * Receives the location of each key-value pair found by the tokenizer.
+     */
+    interface PairHandler {
+
+        /**
+         * Handles one key-value pair, given as absolute index ranges into a buffer.
+         *
+         * @param buffer the buffer holding the line
+         * @param bufferOffset position in the file of index 0 of the buffer
+         * @param keyFrom index of the first byte of the encoded key
+         * @param keyTo index one past the last byte of the encoded key
+         * @param valueFrom index of the first byte of the encoded value
+         * @param valueTo index one past the last byte of the encoded value
+         */
+        void pair(ByteBuffer buffer, long bufferOffset, int keyFrom, int keyTo, int valueFrom, int valueTo);
+
+        /**
+         * Handles one removal record, given as an absolute index range into a buffer.
+         *
+         * A removal record is a line holding an encoded key followed by a single
+         * {@code =} and nothing else. Such lines are written by the journal mode of
+         * {@link ConfigFile}, and are ignored by default.
+         *
+         * @param buffer the buffer holding the line
+         * @param bufferOffset position in the file of index 0 of the buffer
+         * @param keyFrom index of the first byte of the encoded key
+         * @param keyTo index one past the last byte of the encoded key
+         */
+        default void removal(ByteBuffer buffer, long bufferOffset, int keyFrom, int keyTo) {
+            // most callers only want key-value pairs
+        }
+    }
+
+    /**
+     * Size of the buffer used when a caller does not provide one.
+     */
+    static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private ConfigParser() {
+        // static methods only
+    }
+
+    /**
+     * Reads a whole file through a buffer and reports every key-value pair in it.
+     *
+     * @param channel the file to read
+     * @param buffer the buffer to read through; its contents are discarded
+     * @param handler the receiver of the key-value pairs
+     * @return the buffer used for the last read, which may be larger than {@code buffer}
+     * @throws IOException if the file cannot be read
+     * @see #parse(FileChannel, long, long, ByteBuffer, PairHandler)
+     */
+    static ByteBuffer parse(FileChannel channel, ByteBuffer buffer, PairHandler handler) throws IOException {
+        return parse(channel, 0, Long.MAX_VALUE, buffer, handler);
+    }
+
+    /**
+     * Reads part of a file through a buffer and reports every key-value pair in it.
+     *
+     * The bytes {@code [from, to)} are parsed as if they were a whole file, so both
+     * ends of the range should be at the start of a line (see {@link #nextLineStart}).
+     * The file is read with positional reads, so the channel's position is not
+     * changed, and several ranges of one file may be parsed at once. If a single line
+     * does not fit in the buffer, a larger buffer is allocated, and that buffer is
+     * returned so the caller can keep reusing it.
+     *
+     * @param channel the file to read
+     * @param from position in the file of the first byte to parse
+     * @param to position in the file one past the last byte to parse
+     * @param buffer the buffer to read through; its contents are discarded
+     * @param handler the receiver of the key-value pairs
+     * @return the buffer used for the last read, which may be larger than {@code buffer}
+     * @throws IOException if the file cannot be read
+     */
+    static ByteBuffer parse(FileChannel channel, long from, long to, ByteBuffer buffer, PairHandler handler) throws IOException {
+        long position = from;
+        buffer.clear();
+        while (true) {
+            int read = -1;
+            if (position < to) {
+                if (to - position < buffer.remaining()) {
+                    buffer.limit(buffer.position() + (int) (to - position));
+                }
+                read = channel.read(buffer, position);
+                buffer.limit(buffer.capacity());
+            }
+            boolean endOfInput = read < 0;
+            if (!endOfInput) {
+                position += read;
+            }
+            int consumed = parseLines(buffer, position - buffer.position(), 0, buffer.position(), endOfInput, handler);
+            if (endOfInput) {
+                return buffer;
+            }
+            if (consumed == 0 && !buffer.hasRemaining()) {
+                // one line fills the whole buffer, so make room for the rest of it
+                ByteBuffer larger = buffer.isDirect()
+                        ? ByteBuffer.allocateDirect(buffer.capacity() * 2)
+                        : ByteBuffer.allocate(buffer.capacity() * 2);
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            } else {
+                buffer.limit(buffer.position());
+                buffer.position(consumed);
+                buffer.compact();
+            }
+        }
+    }
+
+    /**
+     * Splits a file into chunks and reports the key-value pairs of each chunk in parallel.
+     *
+     * The file is cut at line boundaries into about {@code chunks} ranges, which are
+     * parsed as separate tasks on {@code pool}. Each task stores its pairs into a
+     * map of its own, using a handler obtained from {@code handlerFactory}. The maps
+     * are then merged in file order, so a key which appears on several lines ends up
+     * with the value from its last line, just as with sequential parsing. Handlers
+     * which receive removal records should store a marker value for them rather
+     * than removing the key, so that the removal replaces pairs from earlier chunks.
+     *
+     * @param <V> the type of values stored in the maps
+     * @param channel the file to read
+     * @param mapped the whole file mapped into memory, or {@code null} to read the file through buffers
+     * @param pool the pool to run the parsing tasks in
+     * @param chunks the number of ranges to split the file into
+     * @param handlerFactory creates a handler storing pairs into the given map
+     * @return a mutable map holding the pairs of the whole file
+     * @throws IOException if the file cannot be read
+     */
+    static <V> Map<String, V> parseParallel(FileChannel channel, ByteBuffer mapped, ForkJoinPool pool, int chunks,
+            Function<Map<String, V>, PairHandler> handlerFactory) throws IOException {
+        long size = channel.size();
+        long[] bounds = new long[chunks + 1];
+        for (int i = 1; i < chunks; i++) {
+            bounds[i] = Math.max(bounds[i - 1], nextLineStart(channel, size / chunks * i, size));
+        }
+        bounds[chunks] = size;
+        try {
+            return pool.invoke(new ChunkTask<>(channel, mapped, bounds, 0, chunks, handlerFactory));
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    /**
+     * Finds the start of the first line which starts at or after a position in a file.
+     *
+     * @param channel the file to search
+     * @param position position in the file to start searching from
+     * @param size the size of the file
+     * @return the position of the start of the line, or {@code size} if there is none
+     * @throws IOException if the file cannot be read
+     */
+    static long nextLineStart(FileChannel channel, long position, long size) throws IOException {
+        if (position <= 0) {
+            return 0;
+        }
+        ByteBuffer window = ByteBuffer.allocate(4096);
+        // a line starts after \n, or after a \r which is not the first half of \r\n
+        long windowStart = position - 1;
+        while (windowStart < size) {
+            window.clear();
+            channel.read(window, windowStart);
+            for (int i = 0; i < window.position(); i++) {
+                byte b = window.get(i);
+                if (b == '\n') {
+                    return windowStart + i + 1;
+                } else if (b == '\r') {
+                    if (i + 1 < window.position()) {
+                        return windowStart + i + (window.get(i + 1) == '\n' ? 2 : 1);
+                    }
+                    // the \r is the last byte read, so look at what follows it in the next window
+                    windowStart += i;
+                    window.clear();
+                    window.limit(2);
+                    channel.read(window, windowStart);
+                    return windowStart + (window.position() == 2 && window.get(1) == '\n' ? 2 : 1);
+                }
+            }
+            if (window.position() == 0) {
+                break;
+            }
+            windowStart += window.position();
+        }
+        return size;
+    }
+
+    /**
+     * Parses a run of chunks, splitting it in half until each task has one chunk.
+     */
+    private static final class ChunkTask<V> extends RecursiveTask<Map<String, V>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final ByteBuffer mapped;
+        private final long[] bounds;
+        private final int first;
+        private final int last;
+        private final Function<Map<String, V>, PairHandler> handlerFactory;
+
+        ChunkTask(FileChannel channel, ByteBuffer mapped, long[] bounds, int first, int last,
+                Function<Map<String, V>, PairHandler> handlerFactory) {
+            this.channel = channel;
+            this.mapped = mapped;
+            this.bounds = bounds;
+            this.first = first;
+            this.last = last;
+            this.handlerFactory = handlerFactory;
+        }
+
+        @Override
+        protected Map<String, V> compute() {
+            if (last - first > 1) {
+                int middle = (first + last) >>> 1;
+                ChunkTask<V> earlier = new ChunkTask<>(channel, mapped, bounds, first, middle, handlerFactory);
+                ChunkTask<V> later = new ChunkTask<>(channel, mapped, bounds, middle, last, handlerFactory);
+                later.fork();
+                Map<String, V> pairs = earlier.compute();
+                // pairs from later lines replace pairs from earlier lines
+                pairs.putAll(later.join());
+                return pairs;
+            }
+            Map<String, V> pairs = new HashMap<>();
+            PairHandler handler = handlerFactory.apply(pairs);
+            if (mapped != null) {
+                parseLines(mapped, 0, (int) bounds[first], (int) bounds[last], true, handler);
+            } else {
+                try {
+                    parse(channel, bounds[first], bounds[last], ByteBuffer.allocate(DEFAULT_BUFFER_SIZE), handler);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }
+            return pairs;
+        }
+    }
+
+    /**
+     * Maps a whole file into memory and reports every key-value pair in it.
+     *
+     * The file is mapped read-only and parsed in place, so its contents are never
+     * copied onto the Java heap. The file must not be larger than 2 GiB.
+     *
+     * @param channel the file to read
+     * @param handler the receiver of the key-value pairs
+     * @throws IOException if the file cannot be mapped
+     */
+    static void parseMapped(FileChannel channel, PairHandler handler) throws IOException {
+        MappedByteBuffer mapped = map(channel);
+        parseLines(mapped, 0, 0, mapped.limit(), true, handler);
+    }
+
+    /**
+     * Maps a whole file into memory, read-only.
+     *
+     * @param channel the file to map
+     * @return the mapped contents of the file
+     * @throws IOException if the file cannot be mapped
+     */
+    static MappedByteBuffer map(FileChannel channel) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+
+    /**
+     * Reports every key-value pair held in the bytes {@code [from, to)} of a buffer.
+     *
+     * When {@code endOfInput} is false, the bytes after the last complete line are
+     * left unparsed so that the caller can provide the rest of the line later.
+     * The buffer's position and limit are not used or changed.
+     *
+     * @param buffer the buffer holding the lines
+     * @param bufferOffset position in the file of index 0 of the buffer
+     * @param from index of the first byte of the first line
+     * @param to index one past the last byte available
+     * @param endOfInput whether the bytes end at the end of the file
+     * @param handler the receiver of the key-value pairs
+     * @return the index of the first byte which was not parsed
+     */
+    static int parseLines(ByteBuffer buffer, long bufferOffset, int from, int to, boolean endOfInput, PairHandler handler) {
+        int lineStart = from;
+        while (lineStart < to) {
+            int firstEquals = -1;
+            int secondEquals = -1;
+            int lastOther = -1;
+            int i = lineStart;
+            byte b = 0;
+            while (i < to) {
+                b = buffer.get(i);
+                if (b == '\n' || b == '\r') {
+                    break;
+                } else if (b != '=') {
+                    lastOther = i;
+                } else if (firstEquals < 0) {
+                    firstEquals = i;
+                } else if (secondEquals < 0) {
+                    secondEquals = i;
+                }
+                i++;
+            }
+            int next;
+            if (i == to) {
+                if (!endOfInput) {
+                    return lineStart;
+                }
+                next = to;
+            } else if (b == '\r') {
+                if (i + 1 == to && !endOfInput) {
+                    // cannot tell yet whether this is half of a \r\n
+                    return lineStart;
+                }
+                next = (i + 1 < to && buffer.get(i + 1) == '\n') ? i + 2 : i + 1;
+            } else {
+                next = i + 1;
+            }
+            if (i > lineStart && buffer.get(lineStart) != ';' && firstEquals >= 0) {
+                if (firstEquals < lastOther && (secondEquals < 0 || secondEquals > lastOther)) {
+                    handler.pair(buffer, bufferOffset, lineStart, firstEquals, firstEquals + 1, lastOther + 1);
+                } else if (firstEquals == i - 1) {
+                    handler.removal(buffer, bufferOffset, lineStart, firstEquals);
+                }
+            }
+            lineStart = next;
+        }
+        return lineStart;
+    }
+
+}
@@ -0,0 +1,144 @@
+package com.randallscharpf.java.jconfigfile;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * Read-only {@link Config} holding the pairs of another config as they were at one instant.
+ *
+ * The map passed in must never be changed again. Configs backed by a hash trie
+ * pass one version of the trie, which their later changes replace rather than
+ * change, so the snapshot shares every node with the config and nothing is copied
+ * when it is taken or when the config next changes. Subclasses decide how a stored
+ * value is turned into the string it stands for. The setters throw
+ * {@link UnsupportedOperationException}, the set returned by {@code getKeys} cannot
+ * be changed, and {@code save} and {@code close} do nothing.
+ *
+ * @param <V> the type of the values stored in the map
+ */
+abstract class ConfigSnapshot<V> implements Config {
+
+    private final Map<String, V> pairings;
+
+    ConfigSnapshot(Map<String, V> pairings) {
+        this.pairings = pairings;
+    }
+
+    /**
+     * Creates a snapshot of a map from keys to values which is never changed again.
+     */
+    static Config of(Map<String, String> pairings) {
+        return new ConfigSnapshot<String>(pairings) {
+            @Override
+            String valueOf(String stored) {
+                return stored;
+            }
+        };
+    }
+
+    /**
+     * Returns the value represented by a stored value, which may be {@code null} for a null value.
+     */
+    abstract String valueOf(V stored);
+
+    /**
+     * Returns a stored value, which is {@code null} for a missing key, parsed as the given type.
+     * 
+     * Subclasses whose stored values cache their parsed form override this.
+     */
+    ParsedValue parsed(V stored, ParsedValue.Kind kind) {
+        return ParsedValue.parse(kind, stored == null ? null : valueOf(stored));
+    }
+
+    @Override
+    public void setKey(String key, String value) {
+        throw new UnsupportedOperationException("a config snapshot cannot be changed");
+    }
+
+    @Override
+    public String getKeyOrDefault(String key, String fallback) {
+        V stored = pairings.get(key);
+        if (stored == null && !pairings.containsKey(key)) {
+            return fallback;
+        }
+        return valueOf(stored);
+    }
+
+    @Override
+    public int getInt(String key, int fallback) {
+        return parsed(pairings.get(key), ParsedValue.Kind.INT).intValue(fallback);
+    }
+
+    @Override
+    public long getLong(String key, long fallback) {
+        return parsed(pairings.get(key), ParsedValue.Kind.LONG).longValue(fallback);
+    }
+
+    @Override
+    public double getDouble(String key, double fallback) {
+        return parsed(pairings.get(key), ParsedValue.Kind.DOUBLE).doubleValue(fallback);
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean fallback) {
+        return parsed(pairings.get(key), ParsedValue.Kind.BOOLEAN).booleanValue(fallback);
+    }
+
+    @Override
+    public Duration getDuration(String key, Duration fallback) {
+        return parsed(pairings.get(key), ParsedValue.Kind.DURATION).durationValue(fallback);
+    }
+
+    @Override
+    public Set<String> getKeys() {
+        return Collections.unmodifiableSet(pairings.keySet());
+    }
+
+    @Override
+    public void removeKey(String key) {
+        throw new UnsupportedOperationException("a config snapshot cannot be changed");
+    }
+
+    @Override
+    public void update(Consumer<? super ConfigEditor> edits) {
+        throw new UnsupportedOperationException("a config snapshot cannot be changed");
+    }
+
+    @Override
+    public ConfigCounter counter(String key) {
+        throw new UnsupportedOperationException("a config snapshot cannot be changed");
+    }
+
+    @Override
+    public Config snapshot() {
+        return this;
+    }
+
+    @Override
+    public void save() throws IOException {
+        // do nothing, as a snapshot cannot be changed
+    }
+
+    @Override
+    public CompletableFuture<Void> saveAsync() {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public CompletableFuture<Void> saveAsync(Executor executor) {
+        // nothing to save, so there is no reason to involve the executor
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public void close() throws IOException {
+        // do nothing, the snapshot shares its pairs with the config it was taken from
+    }
+
+}
@@ -0,0 +1,53 @@
+package com.randallscharpf.java.jconfigfile;
+
+/**
+ * Levels of protection against losing a saved {@link ConfigFile} in a crash.
+ *
+ * Each level includes the protection of the levels before it, and makes saving
+ * slower. The level is chosen with {@link ConfigFileOptions#setDurability}.
+ */
+public enum Durability {
+
+    /**
+     * Overwrite the backing file in place, without waiting for the data to reach the disk.
+     *
+     * This is the fastest level and the default. A crash partway through a save can
+     * leave the backing file holding a mix of old and new contents, or cut short.
+     */
+    NONE,
+
+    /**
+     * Write a temporary copy next to the backing file, then atomically move it over the backing file.
+     *
+     * If the program crashes partway through a save, the backing file holds either
+     * its old contents or its new contents. The data is handed to the operating
+     * system but not forced to the disk, so a power failure or operating system
+     * crash may still lose or damage the saved contents.
+     *
+     * The copy is given the owner and permissions of the backing file, and if the
+     * backing file is a symbolic link, the file it points to is replaced. Replacing
+     * the file gives it a new identity, so other hard links to it keep the old
+     * contents. If the copy cannot be created, because the directory is not
+     * writable, or the owner cannot be kept, because it is another user, the
+     * backing file is overwritten in place as with {@link #NONE}.
+     */
+    FLUSH,
+
+    /**
+     * Like {@link #FLUSH}, but force the temporary copy to the disk before moving it.
+     *
+     * After a power failure, the backing file holds either its old contents or its
+     * new contents in full. The move itself may not have reached the disk yet, so
+     * the old contents may come back.
+     */
+    FSYNC,
+
+    /**
+     * Like {@link #FSYNC}, but also force the directory holding the backing file to the disk.
+     *
+     * Once a save returns, its contents survive a power failure. Platforms which
+     * cannot force a directory, such as Windows, give the protection of
+     * {@link #FSYNC} instead.
+     */
+    FSYNC_DIR
+}
@@ -0,0 +1,646 @@
+package com.randallscharpf.java.jconfigfile;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+/**
+ * Thread-safe map built on a persistent hash trie held in an {@link AtomicReference}.
+ *
+ * The trie is never changed once built. Each change builds a new version of it,
+ * sharing every node which did not change with the previous version, and installs
+ * the new version with a compare-and-set. Reads therefore take no lock and see one
+ * consistent version, and {@link #snapshot} captures the current version in
+ * constant time. Iterators work on the version which was current when they were
+ * created, so they never throw {@link java.util.ConcurrentModificationException}.
+ *
+ * The trie branches on five bits of the key's hash at each level. Keys whose whole
+ * hashes are equal share a collision node. Null keys and values are permitted.
+ *
+ * @param <K> the type of keys
+ * @param <V> the type of values
+ */
+final class HashTrieMap<K, V> extends AbstractMap<K, V> {
+
+    private final AtomicReference<Trie<K, V>> current;
+
+    HashTrieMap() {
+        this.current = new AtomicReference<>(Trie.empty());
+    }
+
+    HashTrieMap(Map<? extends K, ? extends V> initial) {
+        Trie<K, V> trie = Trie.empty();
+        Change<K, V> change = new Change<>();
+        for (Map.Entry<? extends K, ? extends V> entry : initial.entrySet()) {
+            trie = trie.with(entry.getKey(), entry.getValue(), change);
+        }
+        this.current = new AtomicReference<>(trie);
+    }
+
+    /**
+     * Returns an unmodifiable map holding the current contents of this map.
+     *
+     * Later changes to this map do not affect the snapshot. Taking a snapshot does
+     * not copy anything.
+     *
+     * @return a read-only view of the current version of this map
+     */
+    Map<K, V> snapshot() {
+        return new Snapshot<>(current.get());
+    }
+
+    /**
+     * Applies a group of changes to the version captured by a snapshot, if that is still the current version.
+     *
+     * The changes are installed together, so readers see either all of them or none.
+     * A {@code null} value in {@code changes} removes its key.
+     *
+     * @param base a snapshot of this map, which the changes were computed from
+     * @param changes the new values of the changed keys
+     * @return whether the changes were applied, or another change was made since the snapshot
+     */
+    boolean commit(Map<K, V> base, Map<? extends K, ? extends V> changes) {
+        if (!(base instanceof Snapshot)) {
+            throw new IllegalArgumentException("changes must be based on a snapshot of this map");
+        }
+        Trie<K, V> expected = ((Snapshot<K, V>) base).trie;
+        Trie<K, V> updated = expected;
+        Change<K, V> change = new Change<>();
+        for (Map.Entry<? extends K, ? extends V> entry : changes.entrySet()) {
+            change.replaced = null;
+            if (entry.getValue() == null) {
+                updated = updated.without(entry.getKey(), change);
+            } else {
+                updated = updated.with(entry.getKey(), entry.getValue(), change);
+            }
+        }
+        return current.compareAndSet(expected, updated);
+    }
+
+    /**
+     * Atomically replaces the value of a key with one computed from its current value.
+     *
+     * The function is given the current value, or {@code null} if the key is absent.
+     * Returning the very value it was given, including {@code null} for an absent
+     * key, leaves the map unchanged, and otherwise the key is set to the value returned. The function is called again if another
+     * change was made while it ran.
+     *
+     * @param key the key to change
+     * @param remapping computes the new value from the current value
+     * @return the value the key holds once the change is made
+     */
+    V compute(K key, UnaryOperator<V> remapping) {
+        Change<K, V> change = new Change<>();
+        while (true) {
+            Trie<K, V> trie = current.get();
+            Leaf<K, V> leaf = trie.find(key);
+            V value = leaf == null ? null : leaf.value;
+            V updated = remapping.apply(value);
+            if (updated == value) {
+                return value;
+            }
+            change.replaced = null;
+            if (current.compareAndSet(trie, trie.with(key, updated, change))) {
+                return updated;
+            }
+        }
+    }
+
+    @Override
+    public V get(Object key) {
+        Leaf<K, V> leaf = current.get().find(key);
+        return leaf == null ? null : leaf.value;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return current.get().find(key) != null;
+    }
+
+    @Override
+    public int size() {
+        return current.get().size;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        Change<K, V> change = new Change<>();
+        while (true) {
+            Trie<K, V> trie = current.get();
+            change.replaced = null;
+            if (current.compareAndSet(trie, trie.with(key, value, change))) {
+                return change.replaced == null ? null : change.replaced.value;
+            }
+        }
+    }
+
+    @Override
+    public V remove(Object key) {
+        Change<K, V> change = new Change<>();
+        while (true) {
+            Trie<K, V> trie = current.get();
+            change.replaced = null;
+            Trie<K, V> updated = trie.without(key, change);
+            if (updated == trie || current.compareAndSet(trie, updated)) {
+                return change.replaced == null ? null : change.replaced.value;
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        current.set(Trie.empty());
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return new AbstractSet<Map.Entry<K, V>>() {
+            @Override
+            public int size() {
+                return HashTrieMap.this.size();
+            }
+
+            @Override
+            public Iterator<Map.Entry<K, V>> iterator() {
+                Iterator<Leaf<K, V>> leaves = current.get().iterator();
+                return new Iterator<Map.Entry<K, V>>() {
+                    private Leaf<K, V> last;
+
+                    @Override
+                    public boolean hasNext() {
+                        return leaves.hasNext();
+                    }
+
+                    @Override
+                    public Map.Entry<K, V> next() {
+                        last = leaves.next();
+                        return last;
+                    }
+
+                    @Override
+                    public void remove() {
+                        if (last == null) {
+                            throw new IllegalStateException();
+                        }
+                        HashTrieMap.this.remove(last.key);
+                        last = null;
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Read-only map over one version of the trie.
+     */
+    private static final class Snapshot<K, V> extends AbstractMap<K, V> {
+
+        private final Trie<K, V> trie;
+
+        Snapshot(Trie<K, V> trie) {
+            this.trie = trie;
+        }
+
+        @Override
+        public V get(Object key) {
+            Leaf<K, V> leaf = trie.find(key);
+            return leaf == null ? null : leaf.value;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return trie.find(key) != null;
+        }
+
+        @Override
+        public int size() {
+            return trie.size;
+        }
+
+        @Override
+        public Set<Map.Entry<K, V>> entrySet() {
+            return new AbstractSet<Map.Entry<K, V>>() {
+                @Override
+                public int size() {
+                    return trie.size;
+                }
+
+                @Override
+                @SuppressWarnings("unchecked")
+                public Iterator<Map.Entry<K, V>> iterator() {
+                    return (Iterator<Map.Entry<K, V>>) (Iterator<?>) trie.iterator();
+                }
+            };
+        }
+    }
+
+    /**
+     * Records what a change to the trie replaced or removed.
+     */
+    private static final class Change<K, V> {
+        Leaf<K, V> replaced;
+    }
+
+    /**
+     * One immutable version of the map: the root node and the number of keys under it.
+     */
+    private static final class Trie<K, V> {
+
+        private static final Trie<?, ?> EMPTY = new Trie<>(new BitmapNode<>(0, new Object[0]), 0);
+
+        private final Node<K, V> root;
+        private final int size;
+
+        private Trie(Node<K, V> root, int size) {
+            this.root = root;
+            this.size = size;
+        }
+
+        @SuppressWarnings("unchecked")
+        static <K, V> Trie<K, V> empty() {
+            return (Trie<K, V>) EMPTY;
+        }
+
+        Leaf<K, V> find(Object key) {
+            return root.find(hash(key), key, 0);
+        }
+
+        Trie<K, V> with(K key, V value, Change<K, V> change) {
+            Node<K, V> updated = root.put(new Leaf<>(hash(key), key, value), 0, change);
+            return new Trie<>(updated, change.replaced == null ? size + 1 : size);
+        }
+
+        Trie<K, V> without(Object key, Change<K, V> change) {
+            Node<K, V> updated = root.remove(hash(key), key, 0, change);
+            if (updated == root) {
+                return this;
+            } else if (updated == null) {
+                return empty();
+            } else {
+                return new Trie<>(updated, size - 1);
+            }
+        }
+
+        Iterator<Leaf<K, V>> iterator() {
+            return new LeafIterator<>(root);
+        }
+
+        private static int hash(Object key) {
+            int h = Objects.hashCode(key);
+            return h ^ (h >>> 16);
+        }
+    }
+
+    /**
+     * A key and its value, which also serves as the map entry handed out by iterators.
+     */
+    private static final class Leaf<K, V> implements Map.Entry<K, V> {
+
+        private final int hash;
+        private final K key;
+        private final V value;
+
+        Leaf(int hash, K key, V value) {
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+        }
+
+        boolean matches(int hash, Object key) {
+            return this.hash == hash && Objects.equals(this.key, key);
+        }
+
+        @Override
+        public K getKey() {
+            return key;
+        }
+
+        @Override
+        public V getValue() {
+            return value;
+        }
+
+        @Override
+        public V setValue(V value) {
+            throw new UnsupportedOperationException("entries of a hash trie cannot be changed");
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) other;
+            return Objects.equals(key, entry.getKey()) && Objects.equals(value, entry.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(key) ^ Objects.hashCode(value);
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + value;
+        }
+    }
+
+    /**
+     * Interior node of the trie, whose slots each hold either a {@link Leaf} or a child node.
+     */
+    private abstract static class Node<K, V> {
+
+        abstract Leaf<K, V> find(int hash, Object key, int shift);
+
+        /**
+         * Returns a copy of this node with the leaf added, or replacing the leaf with the same key.
+         */
+        abstract Node<K, V> put(Leaf<K, V> leaf, int shift, Change<K, V> change);
+
+        /**
+         * Returns a copy of this node without the key, this node if the key is absent, or
+         * {@code null} if the key was the only thing left in it.
+         */
+        abstract Node<K, V> remove(int hash, Object key, int shift, Change<K, V> change);
+
+        /**
+         * Returns the only leaf in this node, if it holds exactly one leaf and no children.
+         */
+        abstract Leaf<K, V> singleLeaf();
+
+        abstract int slotCount();
+
+        abstract Object slot(int index);
+    }
+
+    private static final class BitmapNode<K, V> extends Node<K, V> {
+
+        private final int bitmap;
+        private final Object[] slots;
+
+        BitmapNode(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        Leaf<K, V> find(int hash, Object key, int shift) {
+            int bit = 1 << ((hash >>> shift) & 31);
+            if ((bitmap & bit) == 0) {
+                return null;
+            }
+            Object slot = slots[Integer.bitCount(bitmap & (bit - 1))];
+            if (slot instanceof Leaf) {
+                Leaf<K, V> leaf = (Leaf<K, V>) slot;
+                return leaf.matches(hash, key) ? leaf : null;
+            }
+            return ((Node<K, V>) slot).find(hash, key, shift + 5);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        Node<K, V> put(Leaf<K, V> leaf, int shift, Change<K, V> change) {
+            int bit = 1 << ((leaf.hash >>> shift) & 31);
+            int index = Integer.bitCount(bitmap & (bit - 1));
+            if ((bitmap & bit) == 0) {
+                Object[] inserted = new Object[slots.length + 1];
+                System.arraycopy(slots, 0, inserted, 0, index);
+                inserted[index] = leaf;
+                System.arraycopy(slots, index, inserted, index + 1, slots.length - index);
+                return new BitmapNode<>(bitmap | bit, inserted);
+            }
+            Object slot = slots[index];
+            Object updated;
+            if (slot instanceof Leaf) {
+                Leaf<K, V> existing = (Leaf<K, V>) slot;
+                if (existing.matches(leaf.hash, leaf.key)) {
+                    change.replaced = existing;
+                    updated = leaf;
+                } else {
+                    updated = branch(existing, leaf, shift + 5);
+                }
+            } else {
+                updated = ((Node<K, V>) slot).put(leaf, shift + 5, change);
+            }
+            Object[] replaced = slots.clone();
+            replaced[index] = updated;
+            return new BitmapNode<>(bitmap, replaced);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        Node<K, V> remove(int hash, Object key, int shift, Change<K, V> change) {
+            int bit = 1 << ((hash >>> shift) & 31);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+            int index = Integer.bitCount(bitmap & (bit - 1));
+            Object slot = slots[index];
+            Object updated;
+            if (slot instanceof Leaf) {
+                Leaf<K, V> leaf = (Leaf<K, V>) slot;
+                if (!leaf.matches(hash, key)) {
+                    return this;
+                }
+                change.replaced = leaf;
+                updated = null;
+            } else {
+                Node<K, V> child = (Node<K, V>) slot;
+                Node<K, V> result = child.remove(hash, key, shift + 5, change);
+                if (result == child) {
+                    return this;
+                }
+                // a child left holding a single leaf is replaced by that leaf
+                Leaf<K, V> single = result == null ? null : result.singleLeaf();
+                updated = single != null ? single : result;
+            }
+            if (updated != null) {
+                Object[] replaced = slots.clone();
+                replaced[index] = updated;
+                return new BitmapNode<>(bitmap, replaced);
+            } else if (slots.length == 1) {
+                return null;
+            } else {
+                Object[] removed = new Object[slots.length - 1];
+                System.arraycopy(slots, 0, removed, 0, index);
+                System.arraycopy(slots, index + 1, removed, index, slots.length - index - 1);
+                return new BitmapNode<>(bitmap ^ bit, removed);
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        Leaf<K, V> singleLeaf() {
+            return slots.length == 1 && slots[0] instanceof Leaf ? (Leaf<K, V>) slots[0] : null;
+        }
+
+        @Override
+        int slotCount() {
+            return slots.length;
+        }
+
+        @Override
+        Object slot(int index) {
+            return slots[index];
+        }
+
+        /**
+         * Builds the smallest node holding two leaves whose keys differ.
+         */
+        static <K, V> Node<K, V> branch(Leaf<K, V> first, Leaf<K, V> second, int shift) {
+            if (first.hash == second.hash) {
+                return new CollisionNode<>(first.hash, new Leaf<?, ?>[] {first, second});
+            }
+            int firstIndex = (first.hash >>> shift) & 31;
+            int secondIndex = (second.hash >>> shift) & 31;
+            if (firstIndex == secondIndex) {
+                return new BitmapNode<>(1 << firstIndex, new Object[] {branch(first, second, shift + 5)});
+            } else if (firstIndex < secondIndex) {
+                return new BitmapNode<>(1 << firstIndex | 1 << secondIndex, new Object[] {first, second});
+            } else {
+                return new BitmapNode<>(1 << firstIndex | 1 << secondIndex, new Object[] {second, first});
+            }
+        }
+    }
+
+    /**
+     * Node holding the leaves of keys whose hashes are equal in all 32 bits.
+     */
+    private static final class CollisionNode<K, V> extends Node<K, V> {
+
+        private final int hash;
+        private final Leaf<?, ?>[] leaves;
+
+        CollisionNode(int hash, Leaf<?, ?>[] leaves) {
+            this.hash = hash;
+            this.leaves = leaves;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        Leaf<K, V> find(int hash, Object key, int shift) {
+            for (Leaf<?, ?> leaf : leaves) {
+                if (leaf.matches(hash, key)) {
+                    return (Leaf<K, V>) leaf;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        Node<K, V> put(Leaf<K, V> leaf, int shift, Change<K, V> change) {
+            if (leaf.hash != hash) {
+                // the hashes differ at a bit this node has not branched on yet
+                Node<K, V> branched = new BitmapNode<>(1 << ((hash >>> shift) & 31), new Object[] {this});
+                return branched.put(leaf, shift, change);
+            }
+            for (int i = 0; i < leaves.length; i++) {
+                if (leaves[i].matches(leaf.hash, leaf.key)) {
+                    change.replaced = (Leaf<K, V>) leaves[i];
+                    Leaf<?, ?>[] replaced = leaves.clone();
+                    replaced[i] = leaf;
+                    return new CollisionNode<>(hash, replaced);
+                }
+            }
+            Leaf<?, ?>[] added = new Leaf<?, ?>[leaves.length + 1];
+            System.arraycopy(leaves, 0, added, 0, leaves.length);
+            added[leaves.length] = leaf;
+            return new CollisionNode<>(hash, added);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        Node<K, V> remove(int hash, Object key, int shift, Change<K, V> change) {
+            for (int i = 0; i < leaves.length; i++) {
+                if (leaves[i].matches(hash, key)) {
+                    change.replaced = (Leaf<K, V>) leaves[i];
+                    if (leaves.length == 1) {
+                        return null;
+                    }
+                    Leaf<?, ?>[] removed = new Leaf<?, ?>[leaves.length - 1];
+                    System.arraycopy(leaves, 0, removed, 0, i);
+                    System.arraycopy(leaves, i + 1, removed, i, leaves.length - i - 1);
+                    return new CollisionNode<>(this.hash, removed);
+                }
+            }
+            return this;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        Leaf<K, V> singleLeaf() {
+            return leaves.length == 1 ? (Leaf<K, V>) leaves[0] : null;
+        }
+
+        @Override
+        int slotCount() {
+            return leaves.length;
+        }
+
+        @Override
+        Object slot(int index) {
+            return leaves[index];
+        }
+    }
+
+    /**
+     * Depth-first walk over the leaves under one root, which is never changed.
+     */
+    private static final class LeafIterator<K, V> implements Iterator<Leaf<K, V>> {
+
+        // 32 bits of hash at 5 bits per level, plus one level of collision nodes
+        private final Node<?, ?>[] nodes = new Node<?, ?>[8];
+        private final int[] positions = new int[8];
+        private int depth;
+        private Leaf<K, V> next;
+
+        LeafIterator(Node<K, V> root) {
+            nodes[0] = root;
+            advance();
+        }
+
+        @SuppressWarnings("unchecked")
+        private void advance() {
+            next = null;
+            while (depth >= 0) {
+                Node<?, ?> node = nodes[depth];
+                if (positions[depth] == node.slotCount()) {
+                    depth--;
+                    continue;
+                }
+                Object slot = node.slot(positions[depth]++);
+                if (slot instanceof Leaf) {
+                    next = (Leaf<K, V>) slot;
+                    return;
+                }
+                depth++;
+                nodes[depth] = (Node<?, ?>) slot;
+                positions[depth] = 0;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Leaf<K, V> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Leaf<K, V> leaf = next;
+            advance();
+            return leaf;
+        }
+    }
+
+}
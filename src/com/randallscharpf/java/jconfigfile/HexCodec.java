@@ -0,0 +1,203 @@
+package com.randallscharpf.java.jconfigfile;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Table-driven implementation of the encoding used by {@link ConfigFile}.
+ *
+ * Each character of a string is written as its code point in lowercase hexadecimal,
+ * padded to at least two digits, which is exactly what {@code String.format("%02x", c)}
+ * produces. Characters below {@code U+0100} therefore take two digits, while wider
+ * characters take three or four. The {@code null} string is written as the literal
+ * text {@code null}. Decoding reads the digits back two at a time.
+ *
+ * All methods size their output up front and work directly on {@code char} and
+ * {@code byte} storage, so encoding or decoding a string allocates nothing beyond
+ * the result itself.
+ */
+final class HexCodec {
+
+    /**
+     * The text used to encode a {@code null} string.
+     */
+    static final String NULL_TEXT = "null";
+
+    private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+    private static final byte[] VALUES = new byte[128];
+
+    static {
+        java.util.Arrays.fill(VALUES, (byte) -1);
+        for (int i = 0; i < 10; i++) {
+            VALUES['0' + i] = (byte) i;
+        }
+        for (int i = 0; i < 6; i++) {
+            VALUES['a' + i] = (byte) (10 + i);
+            VALUES['A' + i] = (byte) (10 + i);
+        }
+    }
+
+    private HexCodec() {
+        // static methods only
+    }
+
+    /**
+     * Computes the number of characters {@link #encode(String)} produces for a string.
+     *
+     * @param humanReadable any string, possibly {@code null}
+     * @return the length of the encoded form of the string
+     */
+    static int encodedLength(String humanReadable) {
+        if (humanReadable == null) {
+            return NULL_TEXT.length();
+        }
+        int length = 0;
+        for (int i = 0; i < humanReadable.length(); i++) {
+            length += digitCount(humanReadable.charAt(i));
+        }
+        return length;
+    }
+
+    static String encode(String humanReadable) {
+        if (humanReadable == null) {
+            return NULL_TEXT;
+        }
+        char[] hex = new char[encodedLength(humanReadable)];
+        int pos = 0;
+        for (int i = 0; i < humanReadable.length(); i++) {
+            char c = humanReadable.charAt(i);
+            for (int shift = (digitCount(c) - 1) * 4; shift >= 0; shift -= 4) {
+                hex[pos++] = DIGITS[(c >>> shift) & 0xf];
+            }
+        }
+        return new String(hex);
+    }
+
+    static void encode(String humanReadable, StringBuilder out) {
+        if (humanReadable == null) {
+            out.append(NULL_TEXT);
+            return;
+        }
+        out.ensureCapacity(out.length() + encodedLength(humanReadable));
+        for (int i = 0; i < humanReadable.length(); i++) {
+            char c = humanReadable.charAt(i);
+            for (int shift = (digitCount(c) - 1) * 4; shift >= 0; shift -= 4) {
+                out.append(DIGITS[(c >>> shift) & 0xf]);
+            }
+        }
+    }
+
+    static void encode(String humanReadable, ByteBuffer out) {
+        if (humanReadable == null) {
+            for (int i = 0; i < NULL_TEXT.length(); i++) {
+                out.put((byte) NULL_TEXT.charAt(i));
+            }
+            return;
+        }
+        for (int i = 0; i < humanReadable.length(); i++) {
+            char c = humanReadable.charAt(i);
+            for (int shift = (digitCount(c) - 1) * 4; shift >= 0; shift -= 4) {
+                out.put((byte) DIGITS[(c >>> shift) & 0xf]);
+            }
+        }
+    }
+
+    static String decode(CharSequence hex) {
+        if (NULL_TEXT.contentEquals(hex)) {
+            return null;
+        }
+        char[] humanReadable = new char[hex.length() / 2];
+        for (int i = 0; i < humanReadable.length; i++) {
+            humanReadable[i] = decodePair(hex.charAt(2 * i), hex.charAt(2 * i + 1));
+        }
+        return new String(humanReadable);
+    }
+
+    /**
+     * Decodes the bytes {@code [from, to)} of a buffer without moving its position.
+     *
+     * Each byte is treated as the character with the same value, matching how
+     * {@link java.io.RandomAccessFile#readLine} turns file contents into text.
+     *
+     * @param hex buffer holding the encoded text
+     * @param from absolute index of the first encoded byte
+     * @param to absolute index one past the last encoded byte
+     * @return the decoded string
+     * @throws NumberFormatException if the bytes are not a valid encoding
+     */
+    static String decode(ByteBuffer hex, int from, int to) {
+        if (isNullText(hex, from, to)) {
+            return null;
+        }
+        char[] humanReadable = new char[(to - from) / 2];
+        for (int i = 0; i < humanReadable.length; i++) {
+            humanReadable[i] = decodePair(hex.get(from + 2 * i) & 0xff, hex.get(from + 2 * i + 1) & 0xff);
+        }
+        return new String(humanReadable);
+    }
+
+    /**
+     * Checks whether {@link #decode(ByteBuffer, int, int)} would succeed, without decoding.
+     *
+     * @param hex buffer holding the encoded text
+     * @param from absolute index of the first encoded byte
+     * @param to absolute index one past the last encoded byte
+     * @return whether the bytes are a valid encoding
+     */
+    static boolean isValid(ByteBuffer hex, int from, int to) {
+        if (isNullText(hex, from, to)) {
+            return true;
+        }
+        for (int i = from; i + 1 < to; i += 2) {
+            int first = hex.get(i) & 0xff;
+            int low = digit(hex.get(i + 1) & 0xff);
+            if (low < 0 || (digit(first) < 0 && first != '+' && first != '-')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isNullText(ByteBuffer hex, int from, int to) {
+        if (to - from != NULL_TEXT.length()) {
+            return false;
+        }
+        for (int i = 0; i < NULL_TEXT.length(); i++) {
+            if (hex.get(from + i) != NULL_TEXT.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static char decodePair(int first, int second) {
+        int low = digit(second);
+        if (low >= 0) {
+            int high = digit(first);
+            if (high >= 0) {
+                return (char) (high << 4 | low);
+            }
+            // the original decoder used Integer.parseInt, which also accepts a sign
+            if (first == '+') {
+                return (char) low;
+            } else if (first == '-') {
+                return (char) -low;
+            }
+        }
+        throw new NumberFormatException("invalid hex pair: " + (char) first + (char) second);
+    }
+
+    private static int digit(int c) {
+        return c < VALUES.length ? VALUES[c] : Character.digit(c, 16);
+    }
+
+    private static int digitCount(char c) {
+        if (c < 0x100) {
+            return 2;
+        } else if (c < 0x1000) {
+            return 3;
+        } else {
+            return 4;
+        }
+    }
+
+}
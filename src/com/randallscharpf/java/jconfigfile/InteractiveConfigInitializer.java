@@ -4,6 +4,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 import javax.swing.JOptionPane;
 
 /**
@@ -128,6 +129,23 @@ public class InteractiveConfigInitializer {
      * @return a new or preexisting configuration file for the described application
      */
     public static Config findOrCreateConfigWithFallback(Class<?> callee, String configName) {
+        return findOrCreateConfigWithFallback(callee, configName, ConfigMap::new);
+    }
+
+    /**
+     * Synchronously find a config file or create one if none exists, choosing the fallback config.
+     * 
+     * This method behaves like {@link #findOrCreateConfigWithFallback(Class, String)},
+     * but returns a config obtained from {@code fallback} instead of a {@link ConfigMap}
+     * if a persistent {@link ConfigFile} cannot be created. Applications which share
+     * the config between threads can pass {@code ConcurrentConfigMap::new}.
+     * 
+     * @param callee some class inside the application whose configuration will be located
+     * @param configName the name of the application whose configuration will be located
+     * @param fallback supplies the non-persistent config to use if no config file is available
+     * @return a new or preexisting configuration file for the described application
+     */
+    public static Config findOrCreateConfigWithFallback(Class<?> callee, String configName, Supplier<? extends Config> fallback) {
         try {
             Config cfg = findOrCreateConfig(callee, configName);
             if (cfg == null) {
@@ -140,7 +158,7 @@ public class InteractiveConfigInitializer {
                 } else {
                     JOptionPane.showMessageDialog(null, message, "Error", JOptionPane.WARNING_MESSAGE);
                 }
-                return new ConfigMap();
+                return fallback.get();
             }
             return cfg;
         } catch (IOException ex) {
@@ -153,7 +171,7 @@ public class InteractiveConfigInitializer {
             } else {
                 JOptionPane.showMessageDialog(null, message, "Error", JOptionPane.ERROR_MESSAGE);
             }
-            return new ConfigMap();
+            return fallback.get();
         }
     }
 
@@ -180,6 +198,24 @@ public class InteractiveConfigInitializer {
      * @param callback to be executed when the user interaction is complete
      */
     public static void findOrCreateConfigAsyncWithFallback(Class<?> callee, String configName, Consumer<Config> callback) {
+        findOrCreateConfigAsyncWithFallback(callee, configName, ConfigMap::new, callback);
+    }
+
+    /**
+     * Asynchronously find a config file or create one if none exists, choosing the fallback config.
+     * 
+     * This method behaves like {@link #findOrCreateConfigAsyncWithFallback(Class, String, Consumer)},
+     * but passes a config obtained from {@code fallback} instead of a {@link ConfigMap}
+     * to {@code callback} if a persistent {@link ConfigFile} cannot be created.
+     * Applications which share the config between threads can pass
+     * {@code ConcurrentConfigMap::new}.
+     * 
+     * @param callee some class inside the application whose configuration will be located
+     * @param configName the name of the application whose configuration will be located
+     * @param fallback supplies the non-persistent config to use if no config file is available
+     * @param callback to be executed when the user interaction is complete
+     */
+    public static void findOrCreateConfigAsyncWithFallback(Class<?> callee, String configName, Supplier<? extends Config> fallback, Consumer<Config> callback) {
         findOrCreateConfigAsync(callee, configName, (res, err) -> {
             if (res == null) {
                 if (err != null) {
@@ -203,7 +239,7 @@ public class InteractiveConfigInitializer {
                         JOptionPane.showMessageDialog(null, message, "Error", JOptionPane.WARNING_MESSAGE);
                     }
                 }
-                callback.accept(new ConfigMap());
+                callback.accept(fallback.get());
             } else {
                 callback.accept(res);
             }
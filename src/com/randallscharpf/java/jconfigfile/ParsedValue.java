@@ -0,0 +1,127 @@
+package com.randallscharpf.java.jconfigfile;
+
+import java.time.Duration;
+import java.time.format.DateTimeParseException;
+
+/**
+ * A config value parsed as one of the types read by the typed getters of {@link Config}.
+ *
+ * Parsed values are immutable, so one can be cached alongside the string it was
+ * parsed from and shared between threads. Values which are missing or cannot be
+ * parsed as the requested type are represented as well, so that failing to parse
+ * a value is also only done once.
+ */
+final class ParsedValue {
+
+    /**
+     * The types a value can be parsed as.
+     */
+    enum Kind {
+        INT, LONG, DOUBLE, BOOLEAN, DURATION
+    }
+
+    private static final ParsedValue[] INVALID = new ParsedValue[Kind.values().length];
+    private static final ParsedValue TRUE = new ParsedValue(Kind.BOOLEAN, true, 1, Boolean.TRUE);
+    private static final ParsedValue FALSE = new ParsedValue(Kind.BOOLEAN, true, 0, Boolean.FALSE);
+
+    static {
+        for (Kind kind : Kind.values()) {
+            INVALID[kind.ordinal()] = new ParsedValue(kind, false, 0, null);
+        }
+    }
+
+    private final Kind kind;
+    private final boolean valid;
+    // integers and booleans as themselves, doubles as their raw bits
+    private final long bits;
+    // the value as an object, boxed once so that reading it through a ConfigKey allocates nothing
+    private final Object boxed;
+
+    private ParsedValue(Kind kind, boolean valid, long bits, Object boxed) {
+        this.kind = kind;
+        this.valid = valid;
+        this.bits = bits;
+        this.boxed = boxed;
+    }
+
+    /**
+     * Parses a value, which may be {@code null}, as the given type.
+     */
+    static ParsedValue parse(Kind kind, String value) {
+        if (value == null) {
+            return INVALID[kind.ordinal()];
+        }
+        try {
+            switch (kind) {
+                case INT:
+                    return ofInt(Integer.parseInt(value));
+                case LONG:
+                    return ofLong(Long.parseLong(value));
+                case DOUBLE:
+                    return ofDouble(Double.parseDouble(value));
+                case BOOLEAN:
+                    if (value.equalsIgnoreCase("true")) {
+                        return TRUE;
+                    } else if (value.equalsIgnoreCase("false")) {
+                        return FALSE;
+                    } else {
+                        return INVALID[kind.ordinal()];
+                    }
+                default:
+                    return ofDuration(Duration.parse(value));
+            }
+        } catch (NumberFormatException | DateTimeParseException ex) {
+            // not a value of this type: use the fallback
+            return INVALID[kind.ordinal()];
+        }
+    }
+
+    static ParsedValue ofInt(int value) {
+        return new ParsedValue(Kind.INT, true, value, value);
+    }
+
+    static ParsedValue ofLong(long value) {
+        return new ParsedValue(Kind.LONG, true, value, value);
+    }
+
+    static ParsedValue ofDouble(double value) {
+        return new ParsedValue(Kind.DOUBLE, true, Double.doubleToRawLongBits(value), value);
+    }
+
+    static ParsedValue ofBoolean(boolean value) {
+        return value ? TRUE : FALSE;
+    }
+
+    static ParsedValue ofDuration(Duration value) {
+        return new ParsedValue(Kind.DURATION, true, 0, value);
+    }
+
+    Kind kind() {
+        return kind;
+    }
+
+    int intValue(int fallback) {
+        return valid ? (int) bits : fallback;
+    }
+
+    long longValue(long fallback) {
+        return valid ? bits : fallback;
+    }
+
+    double doubleValue(double fallback) {
+        return valid ? Double.longBitsToDouble(bits) : fallback;
+    }
+
+    boolean booleanValue(boolean fallback) {
+        return valid ? bits != 0 : fallback;
+    }
+
+    Duration durationValue(Duration fallback) {
+        return valid ? (Duration) boxed : fallback;
+    }
+
+    Object boxedValue(Object fallback) {
+        return valid ? boxed : fallback;
+    }
+
+}
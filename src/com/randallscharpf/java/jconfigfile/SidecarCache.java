@@ -0,0 +1,241 @@
+package com.randallscharpf.java.jconfigfile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * Binary copy of the decoded key-value pairs of a {@link ConfigFile}, kept next to its backing file.
+ *
+ * The sidecar is named after the backing file with {@code .idx} appended. It starts
+ * with a header holding a format marker and a stamp of the backing file it was made
+ * from: the file's size, its modification time, and a CRC32C of its contents. The
+ * header is followed by the number of pairs and then each key and value, written as
+ * a character count (or {@code -1} for {@code null}) followed by the UTF-16 characters
+ * of the string. A value which has not been decoded is instead written as
+ * {@code -2} minus its length, followed by its bytes in the encoded form of the
+ * backing file, so that writing the sidecar never decodes a value. A CRC32C of
+ * everything before it ends the file.
+ *
+ * A sidecar is only used when its stamp matches the backing file and its own
+ * checksum is correct. Otherwise, the backing file is parsed as usual. The sidecar
+ * is a cache, so failing to write it is not an error.
+ */
+final class SidecarCache {
+
+    private static final int MAGIC = 0x4a434649; // "JCFI"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4 + 4;
+
+    private final File sidecar;
+
+    SidecarCache(File backingFile) {
+        this.sidecar = new File(backingFile.getPath() + ".idx");
+    }
+
+    /**
+     * Identifies one version of the contents of a backing file.
+     */
+    static final class Stamp {
+
+        private final long size;
+        private final long modified;
+        private final int checksum;
+
+        Stamp(long size, long modified, int checksum) {
+            this.size = size;
+            this.modified = modified;
+            this.checksum = checksum;
+        }
+
+        /**
+         * Computes the stamp of a backing file by reading all of its contents.
+         */
+        static Stamp of(File backingFile, FileChannel channel) throws IOException {
+            CRC32C crc = new CRC32C();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(ConfigParser.DEFAULT_BUFFER_SIZE);
+            long position = 0;
+            int read;
+            while ((read = channel.read(buffer, position)) >= 0) {
+                position += read;
+                buffer.flip();
+                crc.update(buffer);
+                buffer.clear();
+            }
+            return new Stamp(position, backingFile.lastModified(), (int) crc.getValue());
+        }
+
+        boolean matches(long size, long modified, int checksum) {
+            return this.size == size && this.modified == modified && this.checksum == checksum;
+        }
+    }
+
+    /**
+     * Receives the pairs read from a sidecar.
+     */
+    interface PairHandler {
+
+        void pair(String key, String value);
+
+        /**
+         * Receives a pair whose value is still in the encoded form of the backing file.
+         */
+        void encodedPair(String key, byte[] encodedValue);
+    }
+
+    /**
+     * Values to be written to a sidecar, each either as a string or in its encoded form.
+     */
+    interface Values {
+
+        /**
+         * Returns whether the value is written in its encoded form; asked once per value and write.
+         */
+        boolean isEncoded(int index);
+
+        String value(int index);
+
+        int encodedLength(int index);
+
+        void writeEncoded(int index, ByteBuffer destination);
+    }
+
+    /**
+     * Reads the pairs held by the sidecar, if it exists and was made from the given contents.
+     *
+     * If this returns {@code false}, the handler may already have received some of
+     * the pairs, which must then be discarded.
+     *
+     * @param stamp the stamp of the current contents of the backing file
+     * @param handler receives each of the pairs
+     * @return whether the sidecar could be used
+     */
+    boolean read(Stamp stamp, PairHandler handler) {
+        if (!sidecar.isFile()) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(sidecar.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE + 4 || size > Integer.MAX_VALUE) {
+                return false;
+            }
+            ByteBuffer contents = ByteBuffer.allocate((int) size);
+            while (contents.hasRemaining() && channel.read(contents) >= 0) {
+                // keep reading until the buffer is full
+            }
+            contents.flip();
+            if (contents.remaining() != size || contents.getInt() != MAGIC || contents.getInt() != VERSION
+                    || !stamp.matches(contents.getLong(), contents.getLong(), contents.getInt())) {
+                return false;
+            }
+            CRC32C crc = new CRC32C();
+            crc.update(contents.array(), 0, (int) size - 4);
+            if ((int) crc.getValue() != contents.getInt((int) size - 4)) {
+                return false;
+            }
+            int count = contents.getInt();
+            for (int i = 0; i < count; i++) {
+                String key = readString(contents);
+                int length = contents.getInt();
+                if (length < -1) {
+                    byte[] encodedValue = new byte[-2 - length];
+                    contents.get(encodedValue);
+                    handler.encodedPair(key, encodedValue);
+                } else {
+                    handler.pair(key, readChars(contents, length));
+                }
+            }
+            return true;
+        } catch (IOException | RuntimeException ex) {
+            // an unreadable or malformed sidecar is simply not used
+            return false;
+        }
+    }
+
+    /**
+     * Replaces the sidecar with one holding the given pairs.
+     *
+     * @param stamp the stamp of the backing file holding the pairs
+     * @param keys the keys of the pairs
+     * @param values the values of the pairs, in the same order as the keys
+     */
+    void write(Stamp stamp, String[] keys, Values values) {
+        long size = HEADER_SIZE + 4;
+        // the values may be decoded while this runs, so each is only asked once which form it takes
+        boolean[] encoded = new boolean[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            encoded[i] = values.isEncoded(i);
+            size += 8 + 2L * length(keys[i]) + (encoded[i] ? values.encodedLength(i) : 2L * length(values.value(i)));
+        }
+        if (size > Integer.MAX_VALUE) {
+            sidecar.delete();
+            return;
+        }
+        ByteBuffer contents = ByteBuffer.allocate((int) size);
+        contents.putInt(MAGIC).putInt(VERSION);
+        contents.putLong(stamp.size).putLong(stamp.modified).putInt(stamp.checksum);
+        contents.putInt(keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            writeString(contents, keys[i]);
+            if (encoded[i]) {
+                contents.putInt(-2 - values.encodedLength(i));
+                values.writeEncoded(i, contents);
+            } else {
+                writeString(contents, values.value(i));
+            }
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(contents.array(), 0, contents.position());
+        contents.putInt((int) crc.getValue());
+        contents.flip();
+        File temporary = new File(sidecar.getPath() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (contents.hasRemaining()) {
+                    channel.write(contents);
+                }
+            }
+            Files.move(temporary.toPath(), sidecar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ex) {
+            // the sidecar only speeds up loading, so carry on without it
+            temporary.delete();
+            sidecar.delete();
+        }
+    }
+
+    private static int length(String s) {
+        return s == null ? 0 : s.length();
+    }
+
+    private static void writeString(ByteBuffer destination, String s) {
+        if (s == null) {
+            destination.putInt(-1);
+            return;
+        }
+        destination.putInt(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            destination.putChar(s.charAt(i));
+        }
+    }
+
+    private static String readString(ByteBuffer source) {
+        return readChars(source, source.getInt());
+    }
+
+    private static String readChars(ByteBuffer source, int length) {
+        if (length < 0) {
+            return null;
+        }
+        char[] chars = new char[length];
+        source.asCharBuffer().get(chars);
+        source.position(source.position() + 2 * length);
+        return new String(chars);
+    }
+
+}
@@ -0,0 +1,132 @@
+package com.randallscharpf.java.jconfigfile.benchmark;
+
+import com.randallscharpf.java.jconfigfile.ConcurrentConfigMap;
+import com.randallscharpf.java.jconfigfile.Config;
+import com.randallscharpf.java.jconfigfile.ConfigFile;
+import com.randallscharpf.java.jconfigfile.ConfigKey;
+import com.randallscharpf.java.jconfigfile.ConfigMap;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Measures how long a read takes from each {@link Config} implementation.
+ *
+ * Each benchmark reads the keys of a config holding 1024 pairs in turn, first for
+ * a few warm-up rounds which let the JIT compiler settle, then for the measured
+ * rounds. The median time of the measured rounds is reported in nanoseconds per
+ * read. Run it with {@code ant benchmark}, or pass a number of reads per round
+ * as the only argument to run longer or shorter rounds.
+ */
+public class ReadBenchmark {
+
+    private static final int KEYS = 1024;
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURED_ROUNDS = 5;
+
+    // results are added up here so that the JIT compiler cannot drop the reads
+    private static long sink;
+
+    /**
+     * The reads measured by one benchmark.
+     */
+    private interface Reads {
+        long run(long count);
+    }
+
+    public static void main(String[] args) throws IOException {
+        long readsPerRound = args.length > 0 ? Long.parseLong(args[0]) : 20_000_000L;
+        String[] keys = new String[KEYS];
+        String[] missing = new String[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            keys[i] = "key " + i;
+            missing[i] = "missing " + i;
+        }
+        File location = File.createTempFile("jConfigFile_ReadBenchmark", ".cfg");
+        ConfigFile file = new ConfigFile(location);
+        ConfigMap map = new ConfigMap();
+        ConfigMap shared = new ConfigMap();
+        ConcurrentConfigMap concurrent = new ConcurrentConfigMap();
+        for (Config config : new Config[] {file, map, shared, concurrent}) {
+            for (int i = 0; i < KEYS; i++) {
+                config.setKey(keys[i], Integer.toString(i));
+            }
+        }
+        // a snapshot moves the pairs of a config into a hash trie for good
+        shared.snapshot();
+        ConfigKey<?>[] handles = new ConfigKey<?>[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            handles[i] = ConfigKey.intKey(keys[i], -1);
+        }
+
+        measure("ConfigFile.getKeyOrDefault, present", readsPerRound, count -> {
+            long total = 0;
+            for (long i = 0; i < count; i++) {
+                total += file.getKeyOrDefault(keys[(int) i & (KEYS - 1)], "fallback").length();
+            }
+            return total;
+        });
+        measure("ConfigFile.getKeyOrDefault, missing", readsPerRound, count -> {
+            long total = 0;
+            for (long i = 0; i < count; i++) {
+                total += file.getKeyOrDefault(missing[(int) i & (KEYS - 1)], "fallback").length();
+            }
+            return total;
+        });
+        measure("ConfigFile.getInt", readsPerRound, count -> {
+            long total = 0;
+            for (long i = 0; i < count; i++) {
+                total += file.getInt(keys[(int) i & (KEYS - 1)], -1);
+            }
+            return total;
+        });
+        measure("ConfigKey.get from ConfigFile", readsPerRound, count -> {
+            long total = 0;
+            for (long i = 0; i < count; i++) {
+                total += (Integer) handles[(int) i & (KEYS - 1)].get(file);
+            }
+            return total;
+        });
+        measure("ConfigMap.getKeyOrDefault, present", readsPerRound, count -> {
+            long total = 0;
+            for (long i = 0; i < count; i++) {
+                total += map.getKeyOrDefault(keys[(int) i & (KEYS - 1)], "fallback").length();
+            }
+            return total;
+        });
+        measure("ConfigMap.getKeyOrDefault, after a snapshot", readsPerRound, count -> {
+            long total = 0;
+            for (long i = 0; i < count; i++) {
+                total += shared.getKeyOrDefault(keys[(int) i & (KEYS - 1)], "fallback").length();
+            }
+            return total;
+        });
+        measure("ConcurrentConfigMap.getKeyOrDefault, present", readsPerRound, count -> {
+            long total = 0;
+            for (long i = 0; i < count; i++) {
+                total += concurrent.getKeyOrDefault(keys[(int) i & (KEYS - 1)], "fallback").length();
+            }
+            return total;
+        });
+
+        file.close();
+        location.delete();
+        // printed so that the sum is used
+        System.out.println("(checksum " + sink + ")");
+    }
+
+    private static void measure(String name, long readsPerRound, Reads reads) {
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            sink += reads.run(readsPerRound);
+        }
+        double[] nanosPerRead = new double[MEASURED_ROUNDS];
+        for (int round = 0; round < MEASURED_ROUNDS; round++) {
+            long start = System.nanoTime();
+            sink += reads.run(readsPerRound);
+            nanosPerRead[round] = (System.nanoTime() - start) / (double) readsPerRound;
+        }
+        Arrays.sort(nanosPerRead);
+        System.out.printf("%-46s %7.2f ns/read%n", name, nanosPerRead[MEASURED_ROUNDS / 2]);
+    }
+
+}
@@ -0,0 +1,444 @@
+/*
+ * Click nbfs://nbhost/SystemFileSystem/Templates/Licenses/license-default.txt to change this license
+ * Click nbfs://nbhost/SystemFileSystem/Templates/UnitTests/JUnit5TestClass.java to edit this template
+ */
+package com.randallscharpf.java.jconfigfile.unittest;
+
+import com.randallscharpf.java.jconfigfile.Config;
+import com.randallscharpf.java.jconfigfile.ConfigCounter;
+import com.randallscharpf.java.jconfigfile.ConcurrentConfigMap;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Timeout(value = 10, unit = TimeUnit.SECONDS)
+public class ConcurrentConfigMapTest {
+    
+    ConcurrentConfigMap uut;
+    
+    public ConcurrentConfigMapTest() {
+        // use setUp for initialization
+    }
+
+    @BeforeEach
+    public void setUp() {
+        uut = new ConcurrentConfigMap();
+    }
+    
+    @AfterEach
+    public void tearDown() {
+        assertDoesNotThrow(() -> {
+            uut.close();
+        });
+    }
+
+    @Test
+    public void testSetGet() {
+        // test default values
+        assertEquals("fallback 1", uut.getKeyOrDefault("key 1", "fallback 1"));
+        assertEquals("fallback 2", uut.getKeyOrDefault("key 1", "fallback 2"));
+        assertEquals("fallback 3", uut.getKeyOrDefault("key 2", "fallback 3"));
+        assertEquals("fallback 4", uut.getKeyOrDefault("key 2", "fallback 4"));
+        // test adding values
+        uut.setKey("key 1", "value 1");
+        uut.setKey("key 2", "value 2");
+        uut.setKey("key 3", "value 3");
+        uut.setKey("key 4", "value 4");
+        // test getting non-default values
+        assertEquals("value 1", uut.getKeyOrDefault("key 1", "fallback 1"));
+        assertEquals("value 2", uut.getKeyOrDefault("key 2", "fallback 2"));
+        assertEquals("value 3", uut.getKeyOrDefault("key 3", "fallback 3"));
+        assertEquals("value 4", uut.getKeyOrDefault("key 4", "fallback 4"));
+    }
+    
+    @Test
+    public void testEvilKeyValue() {
+        String evilKey = "";
+        String evilValue = "";
+        for (char c = 0; c < 256; c++) {
+            evilKey = evilKey + c;
+            evilValue = c + evilValue;
+        }
+        uut.setKey(evilKey, evilValue);
+        assertEquals(evilValue, uut.getKeyOrDefault(evilKey, "null"));
+    }
+    
+    @Test
+    public void testRemove() {
+        uut.removeKey("doesn't exist");
+        assertEquals(0, uut.getKeys().size());
+        uut.setKey("key 1", "value 1");
+        uut.removeKey("also doesn't exist");
+        assertEquals(1, uut.getKeys().size());
+        uut.setKey("key 2", "value 1");
+        uut.removeKey("key 2");
+        assertEquals(1, uut.getKeys().size());
+        uut.setKey("key 3", "value 1");
+        uut.setKey("key 4", "value 1");
+        uut.removeKey("key 1");
+        assertEquals(2, uut.getKeys().size());
+    }
+    
+    @Test
+    public void testKeySet() {
+        Set<String> expected_result = new HashSet<>();
+        // check empty key set
+        assertEquals(expected_result, uut.getKeys());
+        // add key
+        uut.setKey("apple", "10");
+        expected_result.add("apple");
+        assertEquals(expected_result, uut.getKeys());
+        // add new key
+        uut.setKey("banana", "20");
+        expected_result.add("banana");
+        assertEquals(expected_result, uut.getKeys());
+        // overwrite old key
+        uut.setKey("apple", "30");
+        assertEquals(expected_result, uut.getKeys());
+        // add a few more keys
+        uut.setKey("carrot", "40");
+        uut.setKey("banana", "50");
+        uut.setKey("date", "60");
+        expected_result.add("carrot");
+        expected_result.add("date");
+        assertEquals(expected_result, uut.getKeys());
+    }
+
+    @Test
+    public void testNullKeyValue() {
+        assertEquals("fallback", uut.getKeyOrDefault(null, "fallback"));
+        uut.setKey(null, "value 1");
+        uut.setKey("key 1", null);
+        assertEquals("value 1", uut.getKeyOrDefault(null, "fallback"));
+        assertNull(uut.getKeyOrDefault("key 1", "fallback"));
+        assertEquals(new HashSet<>(Arrays.asList(null, "key 1")), uut.getKeys());
+        assertTrue(uut.getKeys().contains(null));
+        uut.removeKey(null);
+        assertEquals("fallback", uut.getKeyOrDefault(null, "fallback"));
+        assertEquals(Collections.singleton("key 1"), uut.getKeys());
+    }
+
+    @Test
+    public void testKeyIteration() {
+        for (int i = 0; i < 100; i++) {
+            uut.setKey("key " + i, "value " + i);
+        }
+        // changing the config while iterating over its keys is allowed
+        for (String key : uut.getKeys()) {
+            if (key.startsWith("key ")) {
+                uut.removeKey(key);
+                uut.setKey("new " + key, "value");
+            }
+        }
+        assertEquals(100, uut.getKeys().size());
+        Iterator<String> keys = uut.getKeys().iterator();
+        while (keys.hasNext()) {
+            if (!keys.next().startsWith("new ")) {
+                keys.remove();
+            }
+        }
+        for (int i = 0; i < 100; i++) {
+            assertTrue(uut.getKeys().contains("new key " + i));
+        }
+        uut.getKeys().clear();
+        assertEquals(0, uut.getKeys().size());
+        assertTrue(uut.getKeys().isEmpty());
+    }
+
+    @Test
+    public void testConcurrentAccess() {
+        assertDoesNotThrow(() -> {
+            List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+            Thread[] writers = new Thread[4];
+            for (int t = 0; t < writers.length; t++) {
+                int thread = t;
+                writers[t] = new Thread(() -> {
+                    for (int i = 0; i < 5000; i++) {
+                        uut.setKey(thread + " " + i, "value " + i);
+                        assertEquals("value " + i, uut.getKeyOrDefault(thread + " " + i, "fallback"));
+                        if (i % 2 == 0) {
+                            uut.removeKey(thread + " " + i);
+                        }
+                        uut.compute("count", "0", count -> Integer.toString(Integer.parseInt(count) + 1));
+                    }
+                });
+                writers[t].setUncaughtExceptionHandler((thread2, ex) -> failures.add(ex));
+                writers[t].start();
+            }
+            for (Thread writer : writers) {
+                writer.join();
+            }
+            assertEquals(Collections.emptyList(), failures);
+            assertEquals(writers.length * 2500 + 1, uut.getKeys().size());
+            assertEquals(writers.length * 5000L, uut.getReadCount());
+            assertEquals(writers.length * 12500L, uut.getWriteCount());
+            assertEquals(Integer.toString(writers.length * 5000), uut.getKeyOrDefault("count", "fallback"));
+        });
+    }
+
+    @Test
+    public void testSnapshot() {
+        uut.setKey("key 1", "value 1");
+        uut.setKey("key 2", "value 2");
+        uut.setKey(null, null);
+        Set<String> keys = uut.getKeys();
+        Config snapshot = uut.snapshot();
+        uut.setKey("key 1", "changed");
+        uut.removeKey("key 2");
+        uut.setKey("key 3", "value 3");
+        assertEquals("value 1", snapshot.getKeyOrDefault("key 1", "fallback"));
+        assertEquals("value 2", snapshot.getKeyOrDefault("key 2", "fallback"));
+        assertNull(snapshot.getKeyOrDefault(null, "fallback"));
+        assertEquals("fallback", snapshot.getKeyOrDefault("key 3", "fallback"));
+        assertEquals(new HashSet<>(Arrays.asList("key 1", "key 2", null)), snapshot.getKeys());
+        assertThrows(UnsupportedOperationException.class, () -> snapshot.setKey("key 1", "value"));
+        assertThrows(UnsupportedOperationException.class, () -> snapshot.getKeys().clear());
+        // the key set taken before the snapshot still follows the config
+        assertEquals(new HashSet<>(Arrays.asList("key 1", "key 3", null)), keys);
+        keys.remove("key 1");
+        assertEquals("fallback", uut.getKeyOrDefault("key 1", "fallback"));
+        assertEquals("value 1", snapshot.getKeyOrDefault("key 1", "fallback"));
+        // a snapshot never changes, even when a later snapshot is taken
+        Config later = uut.snapshot();
+        uut.getKeys().clear();
+        assertEquals(3, snapshot.getKeys().size());
+        assertEquals(new HashSet<>(Arrays.asList("key 3", null)), later.getKeys());
+        assertTrue(uut.getKeys().isEmpty());
+    }
+
+    @Test
+    public void testConcurrentUpdate() {
+        assertDoesNotThrow(() -> {
+            List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+            Thread[] writers = new Thread[4];
+            for (int t = 0; t < writers.length; t++) {
+                writers[t] = new Thread(() -> {
+                    for (int i = 0; i < 5000; i++) {
+                        // updates must not lose increments made by each other or by compute
+                        if (i % 2 == 0) {
+                            uut.update(editor -> {
+                                int count = Integer.parseInt(editor.getKeyOrDefault("first", "0"));
+                                editor.setKey("first", Integer.toString(count + 1));
+                                editor.setKey("second", Integer.toString(count + 1));
+                            });
+                        } else {
+                            uut.compute("first", "0", count -> Integer.toString(Integer.parseInt(count) + 1));
+                            uut.merge("second", "1", (count, one) -> Integer.toString(Integer.parseInt(count) + 1));
+                        }
+                    }
+                });
+                writers[t].setUncaughtExceptionHandler((thread, ex) -> failures.add(ex));
+                writers[t].start();
+            }
+            for (Thread writer : writers) {
+                writer.join();
+            }
+            assertEquals(Collections.emptyList(), failures);
+            assertEquals(Integer.toString(writers.length * 5000), uut.getKeyOrDefault("first", "fallback"));
+        });
+    }
+
+    @Test
+    public void testConsistentSnapshot() {
+        assertDoesNotThrow(() -> {
+            List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+            Thread writer = new Thread(() -> {
+                for (int i = 0; i < 5000; i++) {
+                    String value = Integer.toString(i);
+                    uut.update(editor -> {
+                        for (int k = 0; k < 20; k++) {
+                            editor.setKey("key " + k, value);
+                        }
+                    });
+                }
+            });
+            writer.setUncaughtExceptionHandler((thread, ex) -> failures.add(ex));
+            writer.start();
+            while (writer.isAlive()) {
+                // a snapshot never holds half of an update
+                Config snapshot = uut.snapshot();
+                String first = snapshot.getKeyOrDefault("key 0", "fallback");
+                for (int k = 1; k < 20; k++) {
+                    assertEquals(first, snapshot.getKeyOrDefault("key " + k, "fallback"));
+                }
+            }
+            writer.join();
+            assertEquals(Collections.emptyList(), failures);
+        });
+    }
+
+    @Test
+    public void testUpdateSeenWhole() {
+        assertDoesNotThrow(() -> {
+            List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+            Thread writer = new Thread(() -> {
+                for (int i = 0; i < 5000; i++) {
+                    boolean add = i % 2 == 0;
+                    uut.update(editor -> {
+                        for (int k = 0; k < 20; k++) {
+                            if (add) {
+                                editor.setKey("key " + k, "value " + k);
+                            } else {
+                                editor.removeKey("key " + k);
+                            }
+                        }
+                    });
+                }
+            });
+            writer.setUncaughtExceptionHandler((thread, ex) -> failures.add(ex));
+            writer.start();
+            while (writer.isAlive()) {
+                // readers see all of an update or none of it, without taking a snapshot
+                int size = uut.getKeys().size();
+                assertTrue(size == 0 || size == 20, "saw " + size + " keys");
+                int count = 0;
+                for (String key : uut.getKeys()) {
+                    count++;
+                }
+                assertTrue(count == 0 || count == 20, "iterated over " + count + " keys");
+            }
+            writer.join();
+            assertEquals(Collections.emptyList(), failures);
+        });
+    }
+
+    @Test
+    public void testUpdateDoesNotBlock() {
+        assertDoesNotThrow(() -> {
+            uut.setKey("key", "before");
+            CountDownLatch editing = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            AtomicInteger calls = new AtomicInteger();
+            Thread updater = new Thread(() -> uut.update(editor -> {
+                editor.setKey("key", editor.getKeyOrDefault("key", "fallback") + " updated");
+                if (calls.incrementAndGet() == 1) {
+                    editing.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException ex) {
+                        throw new IllegalStateException(ex);
+                    }
+                }
+            }));
+            updater.start();
+            editing.await();
+            // snapshots and changes go ahead while the function of an update runs
+            List<Config> snapshots = Collections.synchronizedList(new ArrayList<>());
+            Thread other = new Thread(() -> {
+                snapshots.add(uut.snapshot());
+                uut.setKey("key", "changed");
+            });
+            other.start();
+            other.join(5000);
+            assertFalse(other.isAlive());
+            assertEquals("before", snapshots.get(0).getKeyOrDefault("key", "fallback"));
+            release.countDown();
+            updater.join();
+            // the update was made over a version which had since been replaced, so it ran again
+            assertEquals(2, calls.get());
+            assertEquals("changed updated", uut.getKeyOrDefault("key", "fallback"));
+        });
+    }
+
+    @Test
+    public void testAtomicOperations() {
+        assertTrue(uut.putIfAbsent("key 1", "value 1"));
+        assertFalse(uut.putIfAbsent("key 1", "value 2"));
+        assertEquals("value 1", uut.getKeyOrDefault("key 1", "fallback"));
+        assertTrue(uut.putIfAbsent(null, null));
+        assertFalse(uut.putIfAbsent(null, "value"));
+        assertNull(uut.getKeyOrDefault(null, "fallback"));
+        // a missing key does not hold null
+        assertFalse(uut.replace("key 2", null, "value 2"));
+        assertFalse(uut.getKeys().contains("key 2"));
+        assertTrue(uut.replace(null, null, "not null"));
+        assertFalse(uut.replace("key 1", "value 2", "value 3"));
+        assertTrue(uut.replace("key 1", "value 1", "value 3"));
+        assertEquals("value 3", uut.getKeyOrDefault("key 1", "fallback"));
+        assertEquals("1", uut.compute("count", "0", count -> Integer.toString(Integer.parseInt(count) + 1)));
+        assertEquals("2", uut.compute("count", "0", count -> Integer.toString(Integer.parseInt(count) + 1)));
+        assertEquals("a", uut.merge("list", "a", (list, item) -> list + "," + item));
+        assertEquals("a,b", uut.merge("list", "b", (list, item) -> list + "," + item));
+        assertEquals("a,b", uut.getKeyOrDefault("list", "fallback"));
+        assertEquals(new HashSet<>(Arrays.asList("key 1", null, "count", "list")), uut.getKeys());
+    }
+
+    @Test
+    public void testCounter() {
+        assertDoesNotThrow(() -> {
+            ConfigCounter counter = uut.counter("count");
+            assertSame(counter, uut.counter("count"));
+            counter.increment();
+            counter.add(4);
+            assertEquals(5, counter.get());
+            assertEquals("fallback", uut.getKeyOrDefault("count", "fallback"));
+            uut.save();
+            assertEquals("5", uut.getKeyOrDefault("count", "fallback"));
+            // the counter adds to whatever the key holds
+            uut.setKey("count", "100");
+            counter.add(-1);
+            assertEquals(99, counter.get());
+            uut.save();
+            assertEquals("99", uut.getKeyOrDefault("count", "fallback"));
+            uut.setKey("count", "not a number");
+            counter.increment();
+            uut.save();
+            assertEquals("1", uut.getKeyOrDefault("count", "fallback"));
+        });
+    }
+
+    @Test
+    public void testOperationCounts() {
+        assertDoesNotThrow(() -> {
+            uut.setKey("key 1", "1");
+            uut.removeKey("key 2");
+            uut.putIfAbsent("key 1", "2");
+            uut.replace("key 1", "1", "3");
+            uut.compute("key 1", "0", value -> value + "4");
+            uut.merge("key 1", "5", String::concat);
+            assertEquals(6, uut.getWriteCount());
+            assertEquals(0, uut.getReadCount());
+            // an update counts each change it makes, and each value its editor reads
+            uut.update(editor -> {
+                editor.setKey("key 2", editor.getKeyOrDefault("key 1", "fallback"));
+                editor.setKey("key 3", "value 3");
+                editor.removeKey("key 1");
+            });
+            assertEquals(9, uut.getWriteCount());
+            assertEquals(1, uut.getReadCount());
+            assertEquals(345, uut.getInt("key 2", 0));
+            assertEquals(2, uut.getReadCount());
+            uut.getKeys().remove("key 3");
+            assertEquals(10, uut.getWriteCount());
+            // snapshots are neither reads nor writes
+            Config snapshot = uut.snapshot();
+            assertEquals("345", snapshot.getKeyOrDefault("key 2", "fallback"));
+            assertEquals(10, uut.getWriteCount());
+            assertEquals(2, uut.getReadCount());
+            // flushing a counter is a single compute, and only if it was added to
+            ConfigCounter counter = uut.counter("count");
+            counter.add(3);
+            counter.flush();
+            counter.flush();
+            assertEquals(11, uut.getWriteCount());
+        });
+    }
+
+    @Test
+    public void testSaveAsync() {
+        uut.setKey("key 1", "value 1");
+        // nothing needs to run, so the futures are already complete
+        assertTrue(uut.saveAsync().isDone());
+        assertTrue(uut.saveAsync(task -> fail("the executor should not be used")).isDone());
+        assertEquals("value 1", uut.getKeyOrDefault("key 1", "fallback"));
+    }
+
+}
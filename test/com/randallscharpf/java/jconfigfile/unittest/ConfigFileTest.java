@@ -4,8 +4,14 @@
  */
 package com.randallscharpf.java.jconfigfile.unittest;
 
+import com.randallscharpf.java.jconfigfile.Config;
+import com.randallscharpf.java.jconfigfile.ConfigCounter;
+import com.randallscharpf.java.jconfigfile.ConfigKey;
+import com.randallscharpf.java.jconfigfile.ConfigEditor;
 import com.randallscharpf.java.jconfigfile.ConfigFile;
+import com.randallscharpf.java.jconfigfile.ConfigFileOptions;
 import com.randallscharpf.java.jconfigfile.ConfigFinder;
+import com.randallscharpf.java.jconfigfile.Durability;
 
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
@@ -14,12 +20,34 @@ import org.junit.jupiter.api.Timeout;
 import static org.junit.jupiter.api.Assertions.*;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.io.File;
 import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.management.LockInfo;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MonitorInfo;
+import java.lang.management.ThreadInfo;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
 
 @Timeout(value = 10, unit = TimeUnit.SECONDS)
 public class ConfigFileTest {
@@ -245,7 +273,29 @@ public class ConfigFileTest {
             assertEquals("\0\n\\ =", ConfigFile.decode("000a5c203d"));
         });
     }
-    
+
+    @Test
+    public void testEncodeDecodeOverloads() {
+        assertDoesNotThrow(() -> {
+            // wide characters keep the variable-width digits of the original format
+            assertEquals("61" + "100" + "1234", ConfigFile.encode("a\u0100\u1234"));
+            assertEquals("null", ConfigFile.encode(null));
+            assertEquals(null, ConfigFile.decode("null"));
+            // appending to a builder matches encoding to a new string
+            StringBuilder builder = new StringBuilder("prefix=");
+            ConfigFile.encode("\0\n\\ =", builder);
+            assertEquals("prefix=000a5c203d", builder.toString());
+            ConfigFile.encode(null, builder);
+            assertEquals("prefix=000a5c203dnull", builder.toString());
+            // writing to a buffer matches encoding to a new string, and decodes back
+            ByteBuffer buffer = ByteBuffer.allocate(32);
+            ConfigFile.encode("ABCDEFGHIJ", buffer);
+            buffer.flip();
+            assertEquals(20, buffer.remaining());
+            assertEquals("ABCDEFGHIJ", ConfigFile.decode(buffer));
+            assertEquals(0, buffer.remaining());
+        });
+    }
     
     @Test
     public void testCorruptedFile() {
@@ -290,6 +340,1496 @@ public class ConfigFileTest {
         });
     }
     
+    @Test
+    public void testParserMatchesReadLine() {
+        assertDoesNotThrow(() -> {
+            File configLocation = new ConfigFinder(getClass(), "jConfigFile_ConfigFileTest_testParserMatchesReadLine").searchForConfig();
+            configLocation.getParentFile().mkdirs();
+            // write lines covering every rule of the format, including a line longer than any read buffer
+            StringBuilder longValue = new StringBuilder();
+            for (int i = 0; i < 100000; i++) {
+                longValue.append("\u00e9\u0001");
+            }
+            StringWriter testWriter = new StringWriter();
+            testWriter.write(ConfigFile.encode("lf")+"="+ConfigFile.encode("1")+"\n");
+            testWriter.write(ConfigFile.encode("cr")+"="+ConfigFile.encode("2")+"\r");
+            testWriter.write(ConfigFile.encode("crlf")+"="+ConfigFile.encode("3")+"\r\n");
+            testWriter.write(";"+ConfigFile.encode("comment")+"="+ConfigFile.encode("4")+"\n");
+            testWriter.write("\n\r\n\r");
+            testWriter.write(ConfigFile.encode("trailing")+"="+ConfigFile.encode("5")+"===\n");
+            testWriter.write("="+ConfigFile.encode("empty key")+"\n");
+            testWriter.write(ConfigFile.encode("empty value")+"=\n");
+            testWriter.write("=\n===\n"+ConfigFile.encode("a")+"=="+ConfigFile.encode("b")+"\n");
+            testWriter.write(ConfigFile.encode("signed")+"=-1+f0A\n");
+            testWriter.write(ConfigFile.encode("odd")+"=6162f\n");
+            testWriter.write(ConfigFile.encode("bad")+"=6g\n");
+            testWriter.write("null=null\n");
+            testWriter.write(ConfigFile.encode("long")+"="+ConfigFile.encode(longValue.toString())+"\n");
+            testWriter.write(ConfigFile.encode("lf")+"="+ConfigFile.encode("last writer wins"));
+            byte[] contents = testWriter.toString().getBytes(StandardCharsets.ISO_8859_1);
+            Files.write(configLocation.toPath(), contents);
+            // parse the file the way the original implementation did
+            Map<String, String> expected = new HashMap<>();
+            try (java.io.RandomAccessFile reference = new java.io.RandomAccessFile(configLocation, "r")) {
+                String line;
+                while ((line = reference.readLine()) != null) {
+                    String[] tokens = line.split("=");
+                    if (line.length() > 0 && line.charAt(0) != ';' && tokens.length == 2) {
+                        try {
+                            expected.put(ConfigFile.decode(tokens[0]), ConfigFile.decode(tokens[1]));
+                        } catch(NumberFormatException ex) {
+                            // invalid line: skip parsing
+                        }
+                    }
+                }
+            }
+            assertEquals(longValue.toString(), expected.get("long"));
+            uut = new ConfigFile(configLocation);
+            assertEquals(expected.keySet(), uut.getKeys());
+            for (String key : expected.keySet()) {
+                assertEquals(expected.get(key), uut.getKeyOrDefault(key, "fallback"));
+            }
+            uut.close();
+            // parsing straight from a memory-mapped file gives the same result
+            Files.write(configLocation.toPath(), contents);
+            uut = new ConfigFile(configLocation, new ConfigFileOptions().setMappedReadThreshold(0));
+            assertEquals(expected.keySet(), uut.getKeys());
+            for (String key : expected.keySet()) {
+                assertEquals(expected.get(key), uut.getKeyOrDefault(key, "fallback"));
+            }
+            uut.close();
+            // so does reading values from the file when they are needed
+            Files.write(configLocation.toPath(), contents);
+            uut = new ConfigFile(configLocation, new ConfigFileOptions().setIndexedValues(true).setIndexedValueCacheSize(2));
+            assertEquals(expected.keySet(), uut.getKeys());
+            for (String key : expected.keySet()) {
+                assertEquals(expected.get(key), uut.getKeyOrDefault(key, "fallback"));
+            }
+            uut.close();
+            // so does deferring the decoding of values until they are read
+            Files.write(configLocation.toPath(), contents);
+            uut = new ConfigFile(configLocation, new ConfigFileOptions().setLazyValueDecoding(true));
+            assertEquals(expected.keySet(), uut.getKeys());
+            for (String key : expected.keySet()) {
+                assertEquals(expected.get(key), uut.getKeyOrDefault(key, "fallback"));
+            }
+            uut.close();
+            // cleanup garbage file
+            configLocation.delete();
+        });
+    }
+
+    @Test
+    public void testLazyValueDecoding() {
+        assertDoesNotThrow(() -> {
+            File configLocation = new ConfigFinder(getClass(), "jConfigFile_ConfigFileTest_testLazyValueDecoding").searchForConfig();
+            configLocation.getParentFile().mkdirs();
+            // upper-case digits decode fine, but encoding a decoded value would make them lower-case
+            String untouchedLine = ConfigFile.encode("untouched")+"=4A4B4C\n";
+            Files.write(configLocation.toPath(), (untouchedLine
+                    + ConfigFile.encode("read")+"=4D4E4F\n"
+                    + ConfigFile.encode("changed")+"=505152\n").getBytes(StandardCharsets.ISO_8859_1));
+            uut = new ConfigFile(configLocation, new ConfigFileOptions().setLazyValueDecoding(true));
+            assertEquals("MNO", uut.getKeyOrDefault("read", "fallback"));
+            assertEquals("MNO", uut.getKeyOrDefault("read", "fallback"));
+            uut.setKey("changed", "STU");
+            uut.close();
+            // values which were never changed are written back exactly as they were read
+            String saved = new String(Files.readAllBytes(configLocation.toPath()), StandardCharsets.ISO_8859_1);
+            assertTrue(saved.contains(untouchedLine));
+            assertTrue(saved.contains(ConfigFile.encode("read")+"=4D4E4F\n"));
+            assertTrue(saved.contains(ConfigFile.encode("changed")+"="+ConfigFile.encode("STU")+"\n"));
+            uut = new ConfigFile(configLocation);
+            assertEquals("JKL", uut.getKeyOrDefault("untouched", "fallback"));
+            assertEquals("STU", uut.getKeyOrDefault("changed", "fallback"));
+            uut.close();
+            // cleanup garbage file
+            configLocation.delete();
+        });
+    }
+
+    @Test
+    public void testIndexedValues() {
+        assertDoesNotThrow(() -> {
+            File configLocation = new ConfigFinder(getClass(), "jConfigFile_ConfigFileTest_testIndexedValues").searchForConfig();
+            configLocation.delete();
+            uut = new ConfigFile(configLocation);
+            for (int i = 0; i < 20; i++) {
+                uut.setKey("key " + i, "value " + i);
+            }
+            uut.close();
+            ConfigFileOptions options = new ConfigFileOptions().setIndexedValues(true).setIndexedValueCacheSize(4);
+            uut = new ConfigFile(configLocation, options);
+            for (int i = 0; i < 20; i++) {
+                assertEquals("value " + i, uut.getKeyOrDefault("key " + i, "fallback"));
+            }
+            // changes are kept in memory and merged with the indexed values when saved
+            uut.setKey("key 3", "changed");
+            uut.setKey("key 20", "added");
+            uut.removeKey("key 5");
+            uut.save();
+            // values move within the file when it is saved, and must still be found afterwards
+            for (int i = 0; i < 20; i++) {
+                assertEquals(i == 3 ? "changed" : i == 5 ? "fallback" : "value " + i, uut.getKeyOrDefault("key " + i, "fallback"));
+            }
+            uut.setKey("key 0", "changed again");
+            uut.close();
+            uut = new ConfigFile(configLocation, options);
+            assertEquals(20, uut.getKeys().size());
+            assertEquals("changed again", uut.getKeyOrDefault("key 0", "fallback"));
+            assertEquals("changed", uut.getKeyOrDefault("key 3", "fallback"));
+            assertEquals("fallback", uut.getKeyOrDefault("key 5", "fallback"));
+            assertEquals("added", uut.getKeyOrDefault("key 20", "fallback"));
+            assertEquals("value 19", uut.getKeyOrDefault("key 19", "fallback"));
+            uut.close();
+            // cleanup garbage file
+            configLocation.delete();
+        });
+    }
+
+    @Test
+    public void testParallelLoad() {
+        assertDoesNotThrow(() -> {
+            File configLocation = new ConfigFinder(getClass(), "jConfigFile_ConfigFileTest_testParallelLoad").searchForConfig();
+            configLocation.getParentFile().mkdirs();
+            // write several chunks worth of lines, mixing line endings and repeating keys across chunks
+            String[] endings = {"\n", "\r", "\r\n", "\n;comment\n", "\r\r\n"};
+            StringBuilder contents = new StringBuilder();
+            for (int i = 0; i < 300000; i++) {
+                contents.append(ConfigFile.encode("key " + (i % 7919)));
+                contents.append('=');
+                contents.append(ConfigFile.encode("value " + i));
+                contents.append(endings[i % endings.length]);
+            }
+            byte[] bytes = contents.toString().getBytes(StandardCharsets.ISO_8859_1);
+            Files.write(configLocation.toPath(), bytes);
+            uut = new ConfigFile(configLocation);
+            Map<String, String> expected = new HashMap<>();
+            for (String key : uut.getKeys()) {
+                expected.put(key, uut.getKeyOrDefault(key, "fallback"));
+            }
+            uut.close();
+            assertEquals(7919, expected.size());
+            java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(4);
+            ConfigFileOptions[] parallelOptions = {
+                new ConfigFileOptions().setParallelLoadThreshold(0).setParallelLoadPool(pool),
+                new ConfigFileOptions().setParallelLoadThreshold(0).setParallelLoadPool(pool).setMappedReadThreshold(0),
+                new ConfigFileOptions().setParallelLoadThreshold(0).setParallelLoadPool(pool).setIndexedValues(true)
+            };
+            for (ConfigFileOptions options : parallelOptions) {
+                Files.write(configLocation.toPath(), bytes);
+                uut = new ConfigFile(configLocation, options);
+                assertEquals(expected.keySet(), uut.getKeys());
+                for (String key : expected.keySet()) {
+                    assertEquals(expected.get(key), uut.getKeyOrDefault(key, "fallback"));
+                }
+                uut.close();
+            }
+            pool.shutdown();
+            // cleanup garbage file
+            configLocation.delete();
+        });
+    }
+
+    @Test
+    public void testSidecarCache() {
+        assertDoesNotThrow(() -> {
+            File configLocation = new ConfigFinder(getClass(), "jConfigFile_ConfigFileTest_testSidecarCache").searchForConfig();
+            File sidecarLocation = new File(configLocation.getPath() + ".idx");
+            configLocation.delete();
+            sidecarLocation.delete();
+            ConfigFileOptions options = new ConfigFileOptions().setSidecarCache(true);
+            uut = new ConfigFile(configLocation, options);
+            uut.setKey("key 1", "value 1");
+            uut.setKey(null, "null key");
+            uut.setKey("null value", null);
+            uut.close();
+            assertTrue(sidecarLocation.isFile());
+            // the sidecar matches the backing file, so it is used to load the pairs
+            uut = new ConfigFile(configLocation, options);
+            assertEquals("value 1", uut.getKeyOrDefault("key 1", "fallback"));
+            assertEquals("null key", uut.getKeyOrDefault(null, "fallback"));
+            assertEquals(null, uut.getKeyOrDefault("null value", "fallback"));
+            assertEquals(3, uut.getKeys().size());
+            uut.close();
+            // editing the backing file without changing its size makes the sidecar stale
+            byte[] sidecarContents = Files.readAllBytes(sidecarLocation.toPath());
+            Files.write(configLocation.toPath(), (ConfigFile.encode("key 1")+"="+ConfigFile.encode("value 2")+"\n"
+                    + ConfigFile.encode("key 2")+"="+ConfigFile.encode("value 1")+"\n").getBytes(StandardCharsets.ISO_8859_1));
+            uut = new ConfigFile(configLocation, options);
+            assertEquals("value 2", uut.getKeyOrDefault("key 1", "fallback"));
+            assertEquals("value 1", uut.getKeyOrDefault("key 2", "fallback"));
+            assertEquals(2, uut.getKeys().size());
+            uut.close();
+            // a damaged sidecar is ignored
+            byte[] damaged = Files.readAllBytes(sidecarLocation.toPath());
+            damaged[damaged.length / 2] ^= 1;
+            Files.write(sidecarLocation.toPath(), damaged);
+            uut = new ConfigFile(configLocation, options);
+            assertEquals("value 2", uut.getKeyOrDefault("key 1", "fallback"));
+            assertEquals("value 1", uut.getKeyOrDefault("key 2", "fallback"));
+            uut.close();
+            assertFalse(Arrays.equals(sidecarContents, Files.readAllBytes(sidecarLocation.toPath())));
+            // values which were never decoded are kept in the sidecar in their encoded form
+            ConfigFileOptions lazyOptions = new ConfigFileOptions().setSidecarCache(true).setLazyValueDecoding(true);
+            Files.write(configLocation.toPath(), (ConfigFile.encode("key 3")+"="+ConfigFile.encode("value 3")+"\n")
+                    .getBytes(StandardCharsets.ISO_8859_1));
+            uut = new ConfigFile(configLocation, lazyOptions);
+            uut.close();
+            String sidecarText = new String(Files.readAllBytes(sidecarLocation.toPath()), StandardCharsets.ISO_8859_1);
+            assertTrue(sidecarText.contains(ConfigFile.encode("value 3")));
+            uut = new ConfigFile(configLocation, lazyOptions);
+            assertEquals("value 3", uut.getKeyOrDefault("key 3", "fallback"));
+            uut.close();
+            uut = new ConfigFile(configLocation, options);
+            assertEquals("value 3", uut.getKeyOrDefault("key 3", "fallback"));
+            assertEquals(1, uut.getKeys().size());
+            uut.close();
+            // cleanup garbage files
+            configLocation.delete();
+            sidecarLocation.delete();
+        });
+    }
+
+    @Test
+    public void testJournal() {
+        assertDoesNotThrow(() -> {
+            File configLocation = new ConfigFinder(getClass(), "jConfigFile_ConfigFileTest_testJournal").searchForConfig();
+            configLocation.delete();
+            // never compact at first, so that the records can be inspected
+            ConfigFileOptions options = new ConfigFileOptions().setJournal(true).setJournalCompactionRatio(1);
+            uut = new ConfigFile(configLocation, options);
+            uut.setKey("key 1", "value 1");
+            uut.setKey("key 2", "value 2");
+            uut.setKey("key 3", "value 3");
+            uut.save();
+            long saved = configLocation.length();
+            // each save only appends the keys changed since the last one
+            uut.setKey("key 1", "value 4");
+            uut.save();
+            String update = ConfigFile.encode("key 1")+"="+ConfigFile.encode("value 4")+"\n";
+            assertEquals(saved + update.length(), configLocation.length());
+            uut.removeKey("key 2");
+            uut.getKeys().remove("key 3");
+            uut.save();
+            String contents = new String(Files.readAllBytes(configLocation.toPath()), StandardCharsets.ISO_8859_1);
+            assertTrue(contents.contains("\n"+ConfigFile.encode("key 2")+"=\n"));
+            assertTrue(contents.contains("\n"+ConfigFile.encode("key 3")+"=\n"));
+            // saving with nothing changed writes nothing
+            long length = configLocation.length();
+            uut.save();
+            assertEquals(length, configLocation.length());
+            uut.close();
+            // loading replays the records in order
+            options.setJournalCompactionRatio(0.75);
+            uut = new ConfigFile(configLocation, options);
+            assertEquals(1, uut.getKeys().size());
+            assertEquals("value 4", uut.getKeyOrDefault("key 1", "fallback"));
+            assertEquals("fallback", uut.getKeyOrDefault("key 2", "fallback"));
+            // rewriting one key over and over makes most records obsolete, which triggers compaction
+            long uncompacted = configLocation.length();
+            for (int i = 10; i < 30; i++) {
+                uut.setKey("key 1", "value " + i);
+                uut.save();
+                uncompacted += (ConfigFile.encode("key 1")+"="+ConfigFile.encode("value " + i)+"\n").length();
+            }
+            while (configLocation.length() >= uncompacted) {
+                Thread.sleep(10);
+            }
+            uut.setKey("key 5", "value 5");
+            uut.close();
+            uut = new ConfigFile(configLocation, options);
+            assertEquals(2, uut.getKeys().size());
+            assertEquals("value 29", uut.getKeyOrDefault("key 1", "fallback"));
+            assertEquals("value 5", uut.getKeyOrDefault("key 5", "fallback"));
+            uut.close();
+            // cleanup garbage file
+            configLocation.delete();
+        });
+    }
+
+    @Test
+    public void testDirtyTracking() {
+        assertDoesNotThrow(() -> {
+            File configLocation = new ConfigFinder(getClass(), "jConfigFile_ConfigFileTest_testDirtyTracking").searchForConfig();
+            configLocation.getParentFile().mkdirs();
+            String original = ";comment\n"+ConfigFile.encode("key 1")+"="+ConfigFile.encode("value 1")+"\n";
+            Files.write(configLocation.toPath(), original.getBytes(StandardCharsets.ISO_8859_1));
+            // opening and closing without changes leaves the file alone
+            uut = new ConfigFile(configLocation);
+            assertFalse(uut.isDirty());
+            assertEquals("value 1", uut.getKeyOrDefault("key 1", "fallback"));
+            uut.save();
+            uut.close();
+            assertEquals(original, new String(Files.readAllBytes(configLocation.toPath()), StandardCharsets.ISO_8859_1));
+            // changes make the config dirty until it is saved
+            uut = new ConfigFile(configLocation);
+            uut.setKey("key 2", "value 2");
+            assertTrue(uut.isDirty());
+            uut.save();
+            assertFalse(uut.isDirty());
+            uut.getKeys().remove("key 2");
+            assertTrue(uut.isDirty());
+            uut.close();
+            assertFalse(new String(Files.readAllBytes(configLocation.toPath()), StandardCharsets.ISO_8859_1).contains(";comment"));
+            // a forced save rewrites the file even when nothing changed
+            Files.write(configLocation.toPath(), original.getBytes(StandardCharsets.ISO_8859_1));
+            uut = new ConfigFile(configLocation);
+            uut.forceSave();
+            assertFalse(uut.isDirty());
+            uut.close();
+            String expected = ConfigFile.encode("key 1")+"="+ConfigFile.encode("value 1")+"\n";
+            assertEquals(expected, new String(Files.readAllBytes(configLocation.toPath()), StandardCharsets.ISO_8859_1));
+            // cleanup garbage file
+            configLocation.delete();
+        });
+    }
+
+    @Test
+    public void testDurability() {
+        assertDoesNotThrow(() -> {
+            File configLocation = new ConfigFinder(getClass(), "jConfigFile_ConfigFileTest_testDurability").searchForConfig();
+            configLocation.delete();
+            // a file which merely has the name of a temporary file is left alone
+            File sibling = new File(configLocation.getPath() + ".tmp");
+            configLocation.getParentFile().mkdirs();
+            Files.write(sibling.toPath(), "unrelated".getBytes(StandardCharsets.ISO_8859_1));
+            configLocation.createNewFile();
+            Set<String> siblings = new HashSet<>(Arrays.asList(configLocation.getParentFile().list()));
+            for (Durability durability : Durability.values()) {
+                uut = new ConfigFile(configLocation, new ConfigFileOptions().setDurability(durability));
+                uut.setKey("key 1", durability.name());
+                uut.save();
+                // no temporary file is left behind
+                assertEquals(siblings, new HashSet<>(Arrays.asList(configLocation.getParentFile().list())));
+                assertEquals("unrelated", new String(Files.readAllBytes(sibling.toPath()), StandardCharsets.ISO_8859_1));
+                String expected = ConfigFile.encode("key 1")+"="+ConfigFile.encode(durability.name())+"\n";
+                assertEquals(expected, new String(Files.readAllBytes(configLocation.toPath()), StandardCharsets.ISO_8859_1));
+                // the file which replaced the original is still locked against other writers
+                try (FileChannel channel = FileChannel.open(configLocation.toPath(), StandardOpenOption.WRITE)) {
+                    assertThrows(java.nio.channels.OverlappingFileLockException.class, () -> channel.tryLock());
+                }
+                uut.setKey("key 2", "value 2");
+                assertEquals(durability.name(), uut.getKeyOrDefault("key 1", "fallback"));
+                uut.close();
+                uut = new ConfigFile(configLocation);
+                assertEquals(2, uut.getKeys().size());
+                uut.removeKey("key 2");
+                uut.close();
+            }
+            // by default, the file is overwritten in place rather than replaced
+            Object fileKey = Files.readAttributes(configLocation.toPath(), BasicFileAttributes.class).fileKey();
+            uut = new ConfigFile(configLocation);
+            uut.setKey("key 3", "value 3");
+            uut.close();
+            assertEquals(fileKey, Files.readAttributes(configLocation.toPath(), BasicFileAttributes.class).fileKey());
+            // cleanup garbage files
+            sibling.delete();
+            configLocation.delete();
+        });
+    }
+
+    @Test
+    public void testReplaceKeepsFile() {
+        assertDoesNotThrow(() -> {
+            File configLocation = new ConfigFinder(getClass(), "jConfigFile_ConfigFileTest_testReplaceKeepsFile").searchForConfig();
+            if (!FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+                return;
+            }
+            configLocation.delete();
+            configLocation.getParentFile().mkdirs();
+            configLocation.createNewFile();
+            Set<PosixFilePermission> permissions = PosixFilePermissions.fromString("rw-r-----");
+            Files.setPosixFilePermissions(configLocation.toPath(), permissions);
+            // saving replaces the file, but with one holding the same permissions
+            uut = new ConfigFile(configLocation, new ConfigFileOptions().setDurability(Durability.FSYNC_DIR));
+            uut.setKey("key 1", "value 1");
+            uut.save();
+            assertEquals(permissions, Files.getPosixFilePermissions(configLocation.toPath()));
+            uut.close();
+            // a symbolic link is followed, and the file it points to is the one replaced
+            Path link = configLocation.toPath().resolveSibling(configLocation.getName() + ".link");
+            Files.deleteIfExists(link);
+            Files.createSymbolicLink(link, configLocation.toPath().toAbsolutePath());
+            uut = new ConfigFile(link.toFile(), new ConfigFileOptions().setDurability(Durability.FSYNC_DIR));
+            uut.setKey("key 2", "value 2");
+            uut.close();
+            assertTrue(Files.isSymbolicLink(link));
+            assertEquals(permissions, Files.getPosixFilePermissions(configLocation.toPath()));
+            uut = new ConfigFile(configLocation);
+            assertEquals("value 1", uut.getKeyOrDefault("key 1", "fallback"));
+            assertEquals("value 2", uut.getKeyOrDefault("key 2", "fallback"));
+            uut.close();
+            // cleanup garbage files
+            Files.delete(link);
+            configLocation.delete();
+        });
+    }
+
+    @Test
+    public void testLargeSave() {
+        assertDoesNotThrow(() -> {
+            File configLocation = new ConfigFinder(getClass(), "jConfigFile_ConfigFileTest_testLargeSave").searchForConfig();
+            configLocation.delete();
+            char[] filler = new char[3 * 1024 * 1024];
+            Arrays.fill(filler, 'a');
+            String large = new String(filler);
+            for (ConfigFileOptions options : new ConfigFileOptions[] {
+                new ConfigFileOptions(),
+                new ConfigFileOptions().setIndexedValues(true),
+                new ConfigFileOptions().setJournal(true)
+            }) {
+                // contents longer than the buffer kept between saves are saved through a buffer of their own
+                uut = new ConfigFile(configLocation, options);
+                uut.setKey("large", large);
+                uut.save();
+                uut.setKey("small", "value");
+                uut.removeKey("large");
+                uut.save();
+                uut.setKey("large", large);
+                uut.close();
+                uut = new ConfigFile(configLocation, options);
+                assertEquals(large, uut.getKeyOrDefault("large", "fallback"));
+                assertEquals("value", uut.getKeyOrDefault("small", "fallback"));
+                uut.close();
+                configLocation.delete();
+            }
+        });
+    }
+
+    @Test
+    public void testWriteBehind() {
+        assertDoesNotThrow(() -> {
+            File configLocation = new ConfigFinder(getClass(), "jConfigFile_ConfigFileTest_testWriteBehind").searchForConfig();
+            configLocation.delete();
+            ManualScheduler scheduler = new ManualScheduler();
+            ConfigFileOptions options = new ConfigFileOptions().setWriteBehind(true)
+                    .setWriteBehindDelay(60000).setWriteBehindMaxDelay(120000).setWriteBehindScheduler(scheduler);
+            uut = new ConfigFile(configLocation, options);
+            // one save is scheduled for many changes, once they have been quiet for the delay
+            for (int i = 0; i < 10; i++) {
+                uut.setKey("key " + i, "value " + i);
+            }
+            assertEquals(1, scheduler.scheduled());
+            assertEquals(60000, scheduler.lastDelay());
+            assertEquals(0, configLocation.length());
+            // a save which runs before the delay has passed waits for the rest of it
+            scheduler.runScheduled();
+            assertEquals(1, scheduler.scheduled());
+            assertTrue(uut.isDirty());
+            assertEquals(0, configLocation.length());
+            // flushing saves right away and cancels the scheduled save
+            uut.flushNow();
+            assertFalse(uut.isDirty());
+            assertEquals(0, scheduler.scheduled());
+            String contents = new String(Files.readAllBytes(configLocation.toPath()), StandardCharsets.ISO_8859_1);
+            assertTrue(contents.contains(ConfigFile.encode("key 9")+"="+ConfigFile.encode("value 9")+"\n"));
+            uut.close();
+            // a save which runs once the delay has passed saves the changes
+            options.setWriteBehindDelay(0);
+            uut = new ConfigFile(configLocation, options);
+            uut.setKey("key 10", "value 10");
+            assertEquals(0, scheduler.lastDelay());
+            scheduler.runScheduled();
+            assertFalse(uut.isDirty());
+            assertEquals(0, scheduler.scheduled());
+            contents = new String(Files.readAllBytes(configLocation.toPath()), StandardCharsets.ISO_8859_1);
+            assertTrue(contents.contains(ConfigFile.encode("key 10")+"="+ConfigFile.encode("value 10")+"\n"));
+            uut.close();
+            // a long delay is cut short by the maximum delay
+            options.setWriteBehindDelay(60000).setWriteBehindMaxDelay(0);
+            uut = new ConfigFile(configLocation, options);
+            uut.removeKey("key 10");
+            assertEquals(0, scheduler.lastDelay());
+            scheduler.runScheduled();
+            assertFalse(uut.isDirty());
+            contents = new String(Files.readAllBytes(configLocation.toPath()), StandardCharsets.ISO_8859_1);
+            assertFalse(contents.contains(ConfigFile.encode("key 10")));
+            // closing saves changes still waiting for a write-behind save
+            uut.setKey("key 11", "value 11");
+            uut.close();
+            assertEquals(0, scheduler.scheduled());
+            uut = new ConfigFile(configLocation);
+            assertEquals("value 11", uut.getKeyOrDefault("key 11", "fallback"));
+            uut.close();
+            scheduler.shutdownNow();
+            // cleanup garbage file
+            configLocation.delete();
+        });
+    }
+
+    @Test
+    public void testWriteBehindConcurrentChanges() {
+        assertDoesNotThrow(() -> {
+            File configLocation = new ConfigFinder(getClass(), "jConfigFile_ConfigFileTest_testWriteBehindConcurrentChanges").searchForConfig();
+            configLocation.delete();
+            List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+            ManualScheduler scheduler = new ManualScheduler();
+            ConfigFileOptions options = new ConfigFileOptions().setWriteBehind(true).setWriteBehindDelay(0)
+                    .setWriteBehindScheduler(scheduler).setWriteBehindFailureHandler(failures::add);
+            uut = new ConfigFile(configLocation, options);
+            CountDownLatch firstSave = new CountDownLatch(1);
+            Thread writer = new Thread(() -> {
+                for (int i = 0; i < 20000; i++) {
+                    uut.setKey("key " + (i % 100), "value " + i);
+                    if (i % 7 == 0) {
+                        uut.removeKey("key " + (i % 50));
+                    }
+                    if (i == 10000) {
+                        // the rest of the changes are made after at least one save has run
+                        try {
+                            firstSave.await();
+                        } catch (InterruptedException ex) {
+                            throw new RuntimeException(ex);
+                        }
+                    }
+                }
+            });
+            writer.setUncaughtExceptionHandler((thread, ex) -> failures.add(ex));
+            writer.start();
+            // write-behind saves run on this thread while the other thread keeps changing the config
+            while (writer.isAlive()) {
+                if (scheduler.runScheduled() > 0) {
+                    firstSave.countDown();
+                }
+            }
+            writer.join();
+            scheduler.runScheduled();
+            assertEquals(Collections.emptyList(), failures);
+            assertFalse(uut.isDirty());
+            Map<String, String> saved = new HashMap<>();
+            for (String key : uut.getKeys()) {
+                saved.put(key, uut.getKeyOrDefault(key, "fallback"));
+            }
+            uut.close();
+            uut = new ConfigFile(configLocation);
+            assertEquals(saved.keySet(), uut.getKeys());
+            for (String key : saved.keySet()) {
+                assertEquals(saved.get(key), uut.getKeyOrDefault(key, "fallback"));
+            }
+            uut.close();
+            scheduler.shutdownNow();
+            // cleanup garbage file
+            configLocation.delete();
+        });
+    }
+
+    @Test
+    public void testConcurrentSaves() {
+        assertDoesNotThrow(() -> {
+            File configLocation = new ConfigFinder(getClass(), "jConfigFile_ConfigFileTest_testConcurrentSaves").searchForConfig();
+            Field saveLockField = ConfigFile.class.getDeclaredField("saveLock");
+            Field editLockField = ConfigFile.class.getDeclaredField("editLock");
+            saveLockField.setAccessible(true);
+            editLockField.setAccessible(true);
+            for (ConfigFileOptions options : new ConfigFileOptions[] {
+                new ConfigFileOptions(),
+                new ConfigFileOptions().setJournal(true)
+            }) {
+                configLocation.delete();
+                uut = new ConfigFile(configLocation, options);
+                uut.setKey("first", "value");
+                Object saveLock = saveLockField.get(uut);
+                Object editLock = editLockField.get(uut);
+                List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+                CountDownLatch saveLockHeld = new CountDownLatch(1);
+                CountDownLatch olderSaveWaiting = new CountDownLatch(1);
+                Thread olderSave = new Thread(() -> {
+                    try {
+                        uut.save();
+                    } catch (IOException ex) {
+                        failures.add(ex);
+                    }
+                });
+                Thread newerSave = new Thread(() -> {
+                    synchronized (saveLock) {
+                        saveLockHeld.countDown();
+                        try {
+                            olderSaveWaiting.await();
+                            uut.setKey("last", "value");
+                            uut.save();
+                        } catch (InterruptedException | IOException ex) {
+                            failures.add(ex);
+                        }
+                    }
+                });
+                // the older save waits to take its snapshot, while the newer save takes the save lock if it is free
+                synchronized (editLock) {
+                    olderSave.start();
+                    awaitBlocked(olderSave, editLock);
+                    if (!holdsLock(olderSave, saveLock)) {
+                        newerSave.start();
+                        saveLockHeld.await();
+                    }
+                }
+                if (newerSave.isAlive()) {
+                    // the older save has its snapshot and waits for the newer save to finish
+                    awaitBlocked(olderSave, saveLock);
+                } else {
+                    newerSave.start();
+                }
+                olderSaveWaiting.countDown();
+                olderSave.join();
+                newerSave.join();
+                assertEquals(Collections.emptyList(), failures);
+                // the older save must not write its snapshot over the newer one
+                assertFalse(uut.isDirty());
+                uut.close();
+                uut = new ConfigFile(configLocation);
+                assertEquals("value", uut.getKeyOrDefault("first", "fallback"));
+                assertEquals("value", uut.getKeyOrDefault("last", "fallback"));
+                uut.close();
+            }
+            // cleanup garbage file
+            configLocation.delete();
+        });
+    }
+
+    private static void awaitBlocked(Thread thread, Object lock) {
+        while (true) {
+            assertTrue(thread.isAlive(), "the thread finished without waiting for the lock");
+            LockInfo blocker = ManagementFactory.getThreadMXBean().getThreadInfo(thread.getId()).getLockInfo();
+            if (thread.getState() == Thread.State.BLOCKED && blocker != null
+                    && blocker.getIdentityHashCode() == System.identityHashCode(lock)) {
+                return;
+            }
+            Thread.yield();
+        }
+    }
+
+    private static boolean holdsLock(Thread thread, Object lock) {
+        ThreadInfo info = ManagementFactory.getThreadMXBean().getThreadInfo(new long[] {thread.getId()}, true, false)[0];
+        for (MonitorInfo monitor : info.getLockedMonitors()) {
+            if (monitor.getIdentityHashCode() == System.identityHashCode(lock)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void testSaveAsync() {
+        assertDoesNotThrow(() -> {
+            File configLocation = new ConfigFinder(getClass(), "jConfigFile_ConfigFileTest_testSaveAsync").searchForConfig();
+            configLocation.delete();
+            uut = new ConfigFile(configLocation);
+            uut.setKey("key 1", "value 1");
+            uut.saveAsync().get();
+            assertFalse(uut.isDirty());
+            // requests made while a save is running share one more save
+            List<Runnable> tasks = new ArrayList<>();
+            uut.setKey("key 2", "value 2");
+            CompletableFuture<Void> running = uut.saveAsync(tasks::add);
+            uut.setKey("key 3", "value 3");
+            CompletableFuture<Void> queued = uut.saveAsync(tasks::add);
+            for (int i = 0; i < 5; i++) {
+                assertSame(queued, uut.saveAsync(tasks::add));
+            }
+            assertEquals(1, tasks.size());
+            tasks.remove(0).run();
+            assertTrue(running.isDone());
+            assertFalse(queued.isDone());
+            assertEquals(1, tasks.size());
+            tasks.remove(0).run();
+            assertTrue(queued.isDone());
+            assertTrue(tasks.isEmpty());
+            assertFalse(uut.isDirty());
+            String contents = new String(Files.readAllBytes(configLocation.toPath()), StandardCharsets.ISO_8859_1);
+            assertTrue(contents.contains(ConfigFile.encode("key 3")+"="+ConfigFile.encode("value 3")+"\n"));
+            uut.close();
+            // failures are reported through the future
+            CompletableFuture<Void> failed = uut.saveAsync(Runnable::run);
+            java.util.concurrent.ExecutionException ex = assertThrows(java.util.concurrent.ExecutionException.class, failed::get);
+            assertInstanceOf(IllegalStateException.class, ex.getCause());
+            // cleanup garbage file
+            configLocation.delete();
+        });
+    }
+
+    @Test
+    public void testEncodedLineCache() {
+        assertDoesNotThrow(() -> {
+            File configLocation = new ConfigFinder(getClass(), "jConfigFile_ConfigFileTest_testEncodedLineCache").searchForConfig();
+            configLocation.getParentFile().mkdirs();
+            String untouchedLine = ConfigFile.encode("untouched")+"=4A4B4C\n";
+            for (boolean lazy : new boolean[] {false, true}) {
+                Files.write(configLocation.toPath(), (untouchedLine
+                        + ConfigFile.encode("changed")+"=505152\n").getBytes(StandardCharsets.ISO_8859_1));
+                uut = new ConfigFile(configLocation, new ConfigFileOptions().setLazyValueDecoding(lazy));
+                uut.forceSave();
+                // values which were never read can still be read once their lines are cached
+                assertEquals("JKL", uut.getKeyOrDefault("untouched", "fallback"));
+                for (int i = 0; i < 3; i++) {
+                    uut.setKey("changed", "value " + i);
+                    uut.setKey("added " + i, "value " + i);
+                    uut.save();
+                    Set<String> lines = new HashSet<>(Files.readAllLines(configLocation.toPath(), StandardCharsets.ISO_8859_1));
+                    assertEquals(3 + i, lines.size());
+                    assertTrue(lines.contains(lazy ? untouchedLine.trim() : ConfigFile.encode("untouched")+"="+ConfigFile.encode("JKL")));
+                    assertTrue(lines.contains(ConfigFile.encode("changed")+"="+ConfigFile.encode("value " + i)));
+                    for (int j = 0; j <= i; j++) {
+                        assertTrue(lines.contains(ConfigFile.encode("added " + j)+"="+ConfigFile.encode("value " + j)));
+                    }
+                }
+                uut.close();
+            }
+            // cleanup garbage file
+            configLocation.delete();
+        });
+    }
+
+    @Test
+    public void testIncrementalSave() {
+        assertDoesNotThrow(() -> {
+            File configLocation = new ConfigFinder(getClass(), "jConfigFile_ConfigFileTest_testIncrementalSave").searchForConfig();
+            configLocation.delete();
+            uut = new ConfigFile(configLocation, new ConfigFileOptions().setIncrementalSave(true));
+            for (int i = 0; i < 100; i++) {
+                uut.setKey("key " + i, "value " + i);
+            }
+            uut.save();
+            List<Runnable> changes = Arrays.asList(
+                    () -> uut.setKey("key 100", "value 100"),
+                    () -> uut.setKey("key 50", "changed"),
+                    () -> uut.setKey("key 100", "changed"),
+                    () -> uut.removeKey("key 0"),
+                    () -> uut.removeKey("key 100"),
+                    () -> uut.setKey("key 0", "value 0"),
+                    () -> uut.setKey("key 99", "a much longer value than before"),
+                    () -> uut.setKey("key 99", "short"),
+                    () -> uut.getKeys().clear(),
+                    () -> uut.setKey(null, null)
+            );
+            for (Runnable change : changes) {
+                Object fileKey = Files.readAttributes(configLocation.toPath(), java.nio.file.attribute.BasicFileAttributes.class).fileKey();
+                change.run();
+                uut.save();
+                byte[] incremental = Files.readAllBytes(configLocation.toPath());
+                if (fileKey != null && change == changes.get(0)) {
+                    // the new line was appended in place rather than by replacing the file
+                    assertEquals(fileKey, Files.readAttributes(configLocation.toPath(), java.nio.file.attribute.BasicFileAttributes.class).fileKey());
+                }
+                // the result is the same as writing the whole file
+                uut.forceSave();
+                assertArrayEquals(Files.readAllBytes(configLocation.toPath()), incremental);
+            }
+            uut.close();
+            // cleanup garbage file
+            configLocation.delete();
+        });
+    }
+
+    @Test
+    public void testContentFingerprint() {
+        assertDoesNotThrow(() -> {
+            File configLocation = new ConfigFinder(getClass(), "jConfigFile_ConfigFileTest_testContentFingerprint").searchForConfig();
+            configLocation.delete();
+            for (boolean incremental : new boolean[] {false, true}) {
+                uut = new ConfigFile(configLocation, new ConfigFileOptions().setIncrementalSave(incremental));
+                for (int i = 0; i < 10; i++) {
+                    uut.setKey("key " + i, "value " + i);
+                }
+                uut.save();
+                byte[] saved = Files.readAllBytes(configLocation.toPath());
+                Object fileKey = Files.readAttributes(configLocation.toPath(), java.nio.file.attribute.BasicFileAttributes.class).fileKey();
+                // setting keys to the values they already hold leaves the file alone
+                uut.setKey("key 3", "value 3");
+                uut.setKey("key 7", "value 7");
+                assertTrue(uut.isDirty());
+                uut.save();
+                assertFalse(uut.isDirty());
+                assertArrayEquals(saved, Files.readAllBytes(configLocation.toPath()));
+                if (fileKey != null) {
+                    assertEquals(fileKey, Files.readAttributes(configLocation.toPath(), java.nio.file.attribute.BasicFileAttributes.class).fileKey());
+                }
+                // a real change is still written
+                uut.setKey("key 3", "changed");
+                uut.save();
+                uut.close();
+                uut = new ConfigFile(configLocation);
+                assertEquals("changed", uut.getKeyOrDefault("key 3", "fallback"));
+                uut.close();
+            }
+            // cleanup garbage file
+            configLocation.delete();
+        });
+    }
+
+    @Test
+    public void testRepeatedSaves() {
+        assertDoesNotThrow(() -> {
+            File configLocation = new ConfigFinder(getClass(), "jConfigFile_ConfigFileTest_testRepeatedSaves").searchForConfig();
+            configLocation.delete();
+            uut = new ConfigFile(configLocation, new ConfigFileOptions().setDurability(Durability.NONE));
+            // grow the config past the initial size of the save buffer, then shrink it again
+            for (int size : new int[] {10, 5000, 3, 20000, 0, 1}) {
+                uut.getKeys().clear();
+                Set<String> expected = new HashSet<>();
+                for (int i = 0; i < size; i++) {
+                    uut.setKey("key " + i, "value " + i);
+                    expected.add(ConfigFile.encode("key " + i)+"="+ConfigFile.encode("value " + i));
+                }
+                uut.save();
+                List<String> lines = Files.readAllLines(configLocation.toPath(), StandardCharsets.ISO_8859_1);
+                assertEquals(size, lines.size());
+                assertEquals(expected, new HashSet<>(lines));
+            }
+            uut.close();
+            // cleanup garbage file
+            configLocation.delete();
+        });
+    }
+
+    @Test
+    public void testConcurrentAccess() {
+        assertDoesNotThrow(() -> {
+            File configLocation = new ConfigFinder(getClass(), "jConfigFile_ConfigFileTest_testConcurrentAccess").searchForConfig();
+            configLocation.delete();
+            uut = new ConfigFile(configLocation, new ConfigFileOptions().setDurability(Durability.NONE));
+            // "Aa" and "BB" have the same hash code, so these keys collide in pairs
+            uut.setKey("Aa", "first");
+            uut.setKey("BB", "second");
+            uut.setKey(null, "null key");
+            assertEquals("first", uut.getKeyOrDefault("Aa", null));
+            assertEquals("second", uut.getKeyOrDefault("BB", null));
+            assertEquals("null key", uut.getKeyOrDefault(null, null));
+            uut.removeKey("Aa");
+            assertNull(uut.getKeyOrDefault("Aa", null));
+            assertEquals("second", uut.getKeyOrDefault("BB", null));
+            uut.removeKey(null);
+            assertFalse(uut.getKeys().contains(null));
+            // taking a snapshot shares the config, which makes its getters and setters thread-safe
+            uut.snapshot();
+            List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+            Thread[] writers = new Thread[4];
+            for (int t = 0; t < writers.length; t++) {
+                int thread = t;
+                writers[t] = new Thread(() -> {
+                    for (int i = 0; i < 2000; i++) {
+                        uut.setKey(thread + " " + i, "value " + i);
+                        if (i % 3 == 0) {
+                            uut.removeKey(thread + " " + (i / 3));
+                        }
+                    }
+                });
+                writers[t].setUncaughtExceptionHandler((thread2, ex) -> failures.add(ex));
+                writers[t].start();
+            }
+            // reads, iteration and saves all run while the writers change the config
+            boolean writing = true;
+            while (writing) {
+                int count = 0;
+                for (String key : uut.getKeys()) {
+                    count++;
+                }
+                assertTrue(count > 0);
+                uut.save();
+                writing = false;
+                for (Thread writer : writers) {
+                    writing |= writer.isAlive();
+                }
+            }
+            for (Thread writer : writers) {
+                writer.join();
+            }
+            assertEquals(Collections.emptyList(), failures);
+            Map<String, String> expected = new HashMap<>();
+            expected.put("BB", "second");
+            for (int t = 0; t < writers.length; t++) {
+                for (int i = 0; i < 2000; i++) {
+                    expected.put(t + " " + i, "value " + i);
+                }
+                for (int i = 0; i < 2000; i += 3) {
+                    expected.remove(t + " " + (i / 3));
+                }
+            }
+            assertEquals(expected.keySet(), uut.getKeys());
+            for (Map.Entry<String, String> pair : expected.entrySet()) {
+                assertEquals(pair.getValue(), uut.getKeyOrDefault(pair.getKey(), null));
+            }
+            uut.close();
+            uut = new ConfigFile(configLocation);
+            assertEquals(expected.keySet(), uut.getKeys());
+            uut.close();
+            // cleanup garbage file
+            configLocation.delete();
+        });
+    }
+
+    @Test
+    public void testSnapshot() {
+        assertDoesNotThrow(() -> {
+            File configLocation = new ConfigFinder(getClass(), "jConfigFile_ConfigFileTest_testSnapshot").searchForConfig();
+            ConfigFileOptions[] modes = {
+                new ConfigFileOptions(),
+                new ConfigFileOptions().setIndexedValues(true).setIndexedValueCacheSize(1),
+                new ConfigFileOptions().setIncrementalSave(true)
+            };
+            for (ConfigFileOptions options : modes) {
+                configLocation.delete();
+                uut = new ConfigFile(configLocation);
+                for (int i = 0; i < 10; i++) {
+                    uut.setKey("key " + i, "value " + i);
+                }
+                uut.close();
+                uut = new ConfigFile(configLocation, options);
+                // changes made before the first snapshot shares the config are carried over into it
+                Iterator<String> unshared = uut.getKeys().iterator();
+                while (unshared.hasNext()) {
+                    if (unshared.next().equals("key 9")) {
+                        unshared.remove();
+                    }
+                }
+                assertFalse(uut.getKeys().contains("key 9"));
+                uut.update(editor -> editor.setKey("key 9", "value 9"));
+                Config snapshot = uut.snapshot();
+                // change the config in every way after the snapshot was taken
+                uut.setKey("key 0", "changed");
+                uut.removeKey("key 1");
+                uut.setKey("key 10", "added");
+                Iterator<String> keys = uut.getKeys().iterator();
+                while (keys.hasNext()) {
+                    if (keys.next().equals("key 2")) {
+                        keys.remove();
+                    }
+                }
+                uut.save();
+                Set<String> expected = new HashSet<>();
+                for (int i = 0; i < 10; i++) {
+                    expected.add("key " + i);
+                    assertEquals("value " + i, snapshot.getKeyOrDefault("key " + i, "fallback"));
+                }
+                assertEquals(expected, snapshot.getKeys());
+                assertEquals("fallback", snapshot.getKeyOrDefault("key 10", "fallback"));
+                assertThrows(UnsupportedOperationException.class, () -> snapshot.setKey("key 0", "value"));
+                assertThrows(UnsupportedOperationException.class, () -> snapshot.removeKey("key 0"));
+                assertThrows(UnsupportedOperationException.class, () -> snapshot.getKeys().remove("key 0"));
+                // the config itself sees every change
+                assertEquals("changed", uut.getKeyOrDefault("key 0", "fallback"));
+                assertFalse(uut.getKeys().contains("key 1"));
+                assertFalse(uut.getKeys().contains("key 2"));
+                assertEquals("added", uut.getKeyOrDefault("key 10", "fallback"));
+                assertEquals(9, uut.getKeys().size());
+                assertEquals(10, snapshot.getKeys().size());
+                uut.close();
+            }
+            // cleanup garbage file
+            configLocation.delete();
+        });
+    }
+
+    @Test
+    public void testUpdate() {
+        assertDoesNotThrow(() -> {
+            File configLocation = new ConfigFinder(getClass(), "jConfigFile_ConfigFileTest_testUpdate").searchForConfig();
+            ConfigFileOptions[] modes = {
+                new ConfigFileOptions(),
+                new ConfigFileOptions().setJournal(true),
+                new ConfigFileOptions().setIndexedValues(true)
+            };
+            for (ConfigFileOptions options : modes) {
+                configLocation.delete();
+                uut = new ConfigFile(configLocation, options);
+                uut.setKey("removed", "value");
+                uut.setKey("count", "0");
+                uut.save();
+                uut.close();
+                uut = new ConfigFile(configLocation, options);
+                uut.update(editor -> {
+                    for (int i = 0; i < 100; i++) {
+                        editor.setKey("pool " + i, "size " + i);
+                    }
+                    editor.removeKey("removed");
+                    // the editor sees its own changes, but the config does not yet
+                    assertEquals("size 5", editor.getKeyOrDefault("pool 5", "fallback"));
+                    assertFalse(editor.hasKey("removed"));
+                    assertEquals("fallback", uut.getKeyOrDefault("pool 5", "fallback"));
+                    assertTrue(uut.getKeys().contains("removed"));
+                    editor.setKey("count", Integer.toString(Integer.parseInt(editor.getKeyOrDefault("count", "0")) + 1));
+                });
+                assertEquals("size 5", uut.getKeyOrDefault("pool 5", "fallback"));
+                assertFalse(uut.getKeys().contains("removed"));
+                assertEquals("1", uut.getKeyOrDefault("count", "fallback"));
+                // a failed update changes nothing
+                assertThrows(IllegalArgumentException.class, () -> uut.update(editor -> {
+                    editor.setKey("pool 0", "changed");
+                    throw new IllegalArgumentException();
+                }));
+                assertEquals("size 0", uut.getKeyOrDefault("pool 0", "fallback"));
+                // an editor cannot be used once its update was applied
+                ConfigEditor[] escaped = new ConfigEditor[1];
+                uut.update(editor -> escaped[0] = editor);
+                assertThrows(IllegalStateException.class, () -> escaped[0].setKey("pool 0", "changed"));
+                uut.close();
+                uut = new ConfigFile(configLocation, options);
+                assertEquals(101, uut.getKeys().size());
+                assertEquals("size 99", uut.getKeyOrDefault("pool 99", "fallback"));
+                assertEquals("1", uut.getKeyOrDefault("count", "fallback"));
+                uut.close();
+                assertThrows(IllegalStateException.class, () -> uut.update(editor -> editor.setKey("key", "value")));
+            }
+            // cleanup garbage file
+            configLocation.delete();
+        });
+    }
+
+    @Test
+    public void testConcurrentUpdate() {
+        assertDoesNotThrow(() -> {
+            File configLocation = new ConfigFinder(getClass(), "jConfigFile_ConfigFileTest_testConcurrentUpdate").searchForConfig();
+            configLocation.delete();
+            uut = new ConfigFile(configLocation, new ConfigFileOptions().setDurability(Durability.NONE));
+            List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+            Thread[] writers = new Thread[4];
+            for (int t = 0; t < writers.length; t++) {
+                writers[t] = new Thread(() -> {
+                    for (int i = 0; i < 500; i++) {
+                        // both keys always change together
+                        uut.update(editor -> {
+                            int count = Integer.parseInt(editor.getKeyOrDefault("first", "0"));
+                            editor.setKey("first", Integer.toString(count + 1));
+                            editor.setKey("second", Integer.toString(count + 1));
+                        });
+                    }
+                });
+                writers[t].setUncaughtExceptionHandler((thread, ex) -> failures.add(ex));
+                writers[t].start();
+            }
+            boolean writing = true;
+            while (writing) {
+                Config snapshot = uut.snapshot();
+                assertEquals(snapshot.getKeyOrDefault("first", "0"), snapshot.getKeyOrDefault("second", "0"));
+                uut.save();
+                writing = false;
+                for (Thread writer : writers) {
+                    writing |= writer.isAlive();
+                }
+            }
+            for (Thread writer : writers) {
+                writer.join();
+            }
+            assertEquals(Collections.emptyList(), failures);
+            assertEquals(Integer.toString(writers.length * 500), uut.getKeyOrDefault("first", "fallback"));
+            uut.close();
+            uut = new ConfigFile(configLocation);
+            assertEquals(Integer.toString(writers.length * 500), uut.getKeyOrDefault("second", "fallback"));
+            uut.close();
+            // cleanup garbage file
+            configLocation.delete();
+        });
+    }
+
+    @Test
+    public void testStarvedUpdate() {
+        assertDoesNotThrow(() -> {
+            File configLocation = new ConfigFinder(getClass(), "jConfigFile_ConfigFileTest_testStarvedUpdate").searchForConfig();
+            configLocation.delete();
+            Field editLockField = ConfigFile.class.getDeclaredField("editLock");
+            editLockField.setAccessible(true);
+            for (ConfigFileOptions options : new ConfigFileOptions[] {
+                new ConfigFileOptions(),
+                new ConfigFileOptions().setIndexedValues(true)
+            }) {
+                uut = new ConfigFile(configLocation, options);
+                uut.setKey("other", "initial");
+                // shared, so that the update installs its changes with a compare-and-set
+                uut.snapshot();
+                Object editLock = editLockField.get(uut);
+                List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+                List<Thread> setters = new ArrayList<>();
+                int[] calls = new int[1];
+                boolean[] locked = new boolean[1];
+                uut.update(editor -> {
+                    int call = ++calls[0];
+                    assertTrue(call <= 100, "the update never got to install its changes");
+                    editor.setKey("updated", Integer.toString(call));
+                    // another thread changes the config every time the function runs
+                    Thread setter = new Thread(() -> uut.setKey("other", Integer.toString(call)));
+                    setter.setUncaughtExceptionHandler((thread, ex) -> failures.add(ex));
+                    setters.add(setter);
+                    setter.start();
+                    locked[0] = Thread.holdsLock(editLock);
+                    if (locked[0]) {
+                        // the update gave up racing, so the change waits for it
+                        awaitBlocked(setter, editLock);
+                    } else {
+                        try {
+                            setter.join();
+                        } catch (InterruptedException ex) {
+                            throw new IllegalStateException(ex);
+                        }
+                    }
+                });
+                for (Thread setter : setters) {
+                    setter.join();
+                }
+                assertEquals(Collections.emptyList(), failures);
+                assertTrue(locked[0]);
+                assertTrue(calls[0] > 1);
+                assertEquals(Integer.toString(calls[0]), uut.getKeyOrDefault("updated", "fallback"));
+                // the change held off by the update is made once the update is done
+                assertEquals(Integer.toString(calls[0]), uut.getKeyOrDefault("other", "fallback"));
+                uut.save();
+                uut.close();
+                uut = new ConfigFile(configLocation);
+                assertEquals(Integer.toString(calls[0]), uut.getKeyOrDefault("updated", "fallback"));
+                assertEquals(Integer.toString(calls[0]), uut.getKeyOrDefault("other", "fallback"));
+                uut.close();
+            }
+            // cleanup garbage file
+            configLocation.delete();
+        });
+    }
+
+    @Test
+    public void testAtomicOperations() {
+        assertDoesNotThrow(() -> {
+            File configLocation = new ConfigFinder(getClass(), "jConfigFile_ConfigFileTest_testAtomicOperations").searchForConfig();
+            ConfigFileOptions[] modes = {
+                new ConfigFileOptions(),
+                new ConfigFileOptions().setIndexedValues(true)
+            };
+            for (ConfigFileOptions options : modes) {
+                configLocation.delete();
+                uut = new ConfigFile(configLocation);
+                uut.setKey("key 1", "value 1");
+                uut.setKey("count", "0");
+                uut.close();
+                uut = new ConfigFile(configLocation, options);
+                assertFalse(uut.putIfAbsent("key 1", "value 2"));
+                assertTrue(uut.putIfAbsent("key 2", "value 2"));
+                assertFalse(uut.replace("key 3", null, "value 3"));
+                assertFalse(uut.getKeys().contains("key 3"));
+                assertFalse(uut.replace("key 1", "value 2", "value 3"));
+                assertTrue(uut.replace("key 1", "value 1", "value 3"));
+                assertEquals("a", uut.merge("list", "a", (list, item) -> list + "," + item));
+                assertEquals("a,b", uut.merge("list", "b", (list, item) -> list + "," + item));
+                uut.save();
+                // unchanged keys leave the config clean
+                assertFalse(uut.putIfAbsent("key 2", "value 4"));
+                assertFalse(uut.replace("key 2", "value 4", "value 5"));
+                assertFalse(uut.isDirty());
+                Thread[] writers = new Thread[4];
+                List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+                for (int t = 0; t < writers.length; t++) {
+                    writers[t] = new Thread(() -> {
+                        for (int i = 0; i < 250; i++) {
+                            uut.compute("count", "0", count -> Integer.toString(Integer.parseInt(count) + 1));
+                        }
+                    });
+                    writers[t].setUncaughtExceptionHandler((thread, ex) -> failures.add(ex));
+                }
+                for (Thread writer : writers) {
+                    writer.start();
+                }
+                for (Thread writer : writers) {
+                    writer.join();
+                }
+                assertEquals(Collections.emptyList(), failures);
+                assertEquals("1000", uut.getKeyOrDefault("count", "fallback"));
+                uut.close();
+                uut = new ConfigFile(configLocation);
+                assertEquals("value 3", uut.getKeyOrDefault("key 1", "fallback"));
+                assertEquals("value 2", uut.getKeyOrDefault("key 2", "fallback"));
+                assertEquals("a,b", uut.getKeyOrDefault("list", "fallback"));
+                assertEquals("1000", uut.getKeyOrDefault("count", "fallback"));
+                uut.close();
+            }
+            // cleanup garbage file
+            configLocation.delete();
+        });
+    }
+
+    @Test
+    public void testConcurrentAtomicOperations() {
+        assertDoesNotThrow(() -> {
+            File configLocation = new ConfigFinder(getClass(), "jConfigFile_ConfigFileTest_testConcurrentAtomicOperations").searchForConfig();
+            configLocation.delete();
+            // the atomic operations and updates exclude each other on every thread
+            uut = new ConfigFile(configLocation, new ConfigFileOptions().setDurability(Durability.NONE));
+            List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+            Thread[] writers = new Thread[4];
+            for (int t = 0; t < writers.length; t++) {
+                writers[t] = new Thread(() -> {
+                    for (int i = 0; i < 5000; i++) {
+                        switch (i % 3) {
+                            case 0:
+                                uut.compute("count", "0", count -> Integer.toString(Integer.parseInt(count) + 1));
+                                break;
+                            case 1:
+                                uut.merge("count", "1", (count, one) -> Integer.toString(Integer.parseInt(count) + 1));
+                                break;
+                            default:
+                                uut.update(editor -> editor.setKey("count",
+                                        Integer.toString(Integer.parseInt(editor.getKeyOrDefault("count", "0")) + 1)));
+                                break;
+                        }
+                    }
+                });
+                writers[t].setUncaughtExceptionHandler((thread, ex) -> failures.add(ex));
+                writers[t].start();
+            }
+            for (Thread writer : writers) {
+                writer.join();
+            }
+            assertEquals(Collections.emptyList(), failures);
+            assertEquals(writers.length * 5000, uut.getInt("count", 0));
+            uut.close();
+            // cleanup garbage file
+            configLocation.delete();
+        });
+    }
+
+    @Test
+    public void testCounter() {
+        assertDoesNotThrow(() -> {
+            File configLocation = new ConfigFinder(getClass(), "jConfigFile_ConfigFileTest_testCounter").searchForConfig();
+            configLocation.delete();
+            uut = new ConfigFile(configLocation);
+            uut.setKey("requests", "10");
+            uut.close();
+            uut = new ConfigFile(configLocation, new ConfigFileOptions());
+            ConfigCounter requests = uut.counter("requests");
+            assertSame(requests, uut.counter("requests"));
+            assertEquals("requests", requests.getKey());
+            assertEquals(10, requests.get());
+            List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+            Thread[] workers = new Thread[4];
+            for (int t = 0; t < workers.length; t++) {
+                workers[t] = new Thread(() -> {
+                    for (int i = 0; i < 10000; i++) {
+                        requests.increment();
+                    }
+                });
+                workers[t].setUncaughtExceptionHandler((thread, ex) -> failures.add(ex));
+                workers[t].start();
+            }
+            // saves fold in the additions made so far while the workers keep adding
+            boolean working = true;
+            while (working) {
+                uut.save();
+                working = false;
+                for (Thread worker : workers) {
+                    working |= worker.isAlive();
+                }
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            assertEquals(Collections.emptyList(), failures);
+            assertEquals(40010, requests.get());
+            // additions only reach the key, and make the config dirty, when it is saved
+            requests.add(5);
+            assertFalse(uut.isDirty());
+            uut.close();
+            uut = new ConfigFile(configLocation);
+            assertEquals("40015", uut.getKeyOrDefault("requests", "fallback"));
+            uut.close();
+            // cleanup garbage file
+            configLocation.delete();
+        });
+    }
+
+    @Test
+    public void testTypedAccessors() {
+        assertDoesNotThrow(() -> {
+            File configLocation = new ConfigFinder(getClass(), "jConfigFile_ConfigFileTest_testTypedAccessors").searchForConfig();
+            configLocation.delete();
+            uut = new ConfigFile(configLocation);
+            uut.setInt("int", -12);
+            uut.setLong("long", Long.MIN_VALUE);
+            uut.setDouble("double", 1e-300);
+            uut.setBoolean("boolean", false);
+            uut.setDuration("duration", Duration.ofMillis(1500));
+            uut.setKey("text", "twelve");
+            uut.setKey("upper", "TRUE");
+            assertEquals(-12, uut.getInt("int", 0));
+            assertEquals("-12", uut.getKeyOrDefault("int", "fallback"));
+            uut.close();
+            for (ConfigFileOptions options : new ConfigFileOptions[] {
+                new ConfigFileOptions(),
+                new ConfigFileOptions().setIndexedValues(true)
+            }) {
+                uut = new ConfigFile(configLocation, options);
+                // each read after the first uses the cached parsed value
+                for (int i = 0; i < 2; i++) {
+                    assertEquals(-12, uut.getInt("int", 0));
+                    assertEquals(Long.MIN_VALUE, uut.getLong("long", 0));
+                    assertEquals(1e-300, uut.getDouble("double", 0));
+                    assertFalse(uut.getBoolean("boolean", true));
+                    assertTrue(uut.getBoolean("upper", false));
+                    assertEquals(Duration.ofMillis(1500), uut.getDuration("duration", Duration.ZERO));
+                    assertEquals(5, uut.getInt("text", 5));
+                    assertEquals(5, uut.getInt("missing", 5));
+                }
+                // reading a key as another type does not reuse the cached value
+                assertEquals(-12L, uut.getLong("int", 0));
+                assertEquals(-12.0, uut.getDouble("int", 0));
+                assertEquals(5, uut.getInt("long", 5));
+                Config snapshot = uut.snapshot();
+                // changing a key drops its cached value
+                uut.setKey("int", "34");
+                assertEquals(34, uut.getInt("int", 0));
+                uut.removeKey("long");
+                assertEquals(5, uut.getLong("long", 5));
+                uut.update(editor -> editor.setKey("boolean", "true"));
+                assertTrue(uut.getBoolean("boolean", false));
+                uut.compute("double", "0", value -> "2.5");
+                assertEquals(2.5, uut.getDouble("double", 0));
+                assertEquals(-12, snapshot.getInt("int", 0));
+                assertEquals(Long.MIN_VALUE, snapshot.getLong("long", 0));
+                assertFalse(snapshot.getBoolean("boolean", true));
+                uut.close();
+                assertThrows(IllegalStateException.class, () -> uut.getInt("int", 0));
+                // close saved the changes, so put the original values back
+                uut = new ConfigFile(configLocation);
+                uut.setInt("int", -12);
+                uut.setLong("long", Long.MIN_VALUE);
+                uut.setDouble("double", 1e-300);
+                uut.setBoolean("boolean", false);
+                uut.close();
+            }
+            // cleanup garbage file
+            configLocation.delete();
+        });
+    }
+
+    @Test
+    public void testConfigKey() {
+        assertDoesNotThrow(() -> {
+            File configLocation = new ConfigFinder(getClass(), "jConfigFile_ConfigFileTest_testConfigKey").searchForConfig();
+            File otherLocation = new ConfigFinder(getClass(), "jConfigFile_ConfigFileTest_testConfigKey_other").searchForConfig();
+            configLocation.delete();
+            otherLocation.delete();
+            ConfigKey<Integer> port = ConfigKey.intKey("port", 8080);
+            ConfigKey<String> host = ConfigKey.stringKey("host", "localhost");
+            ConfigKey<Boolean> secure = ConfigKey.booleanKey("secure", false);
+            ConfigKey<Duration> timeout = ConfigKey.durationKey("timeout", Duration.ofSeconds(30));
+            ConfigKey<Double> ratio = ConfigKey.doubleKey("ratio", 0.5);
+            ConfigKey<Long> limit = ConfigKey.longKey("limit", -1);
+            for (ConfigFileOptions options : new ConfigFileOptions[] {
+                new ConfigFileOptions(),
+                new ConfigFileOptions().setIndexedValues(true)
+            }) {
+                uut = new ConfigFile(configLocation, options);
+                ConfigFile other = new ConfigFile(otherLocation, options);
+                assertEquals(8080, port.get(uut));
+                assertEquals("localhost", host.get(uut));
+                assertEquals(Duration.ofSeconds(30), timeout.get(uut));
+                port.set(uut, 9090);
+                host.set(uut, "example.com");
+                secure.set(uut, true);
+                ratio.set(uut, 0.25);
+                limit.set(uut, 1L << 40);
+                assertEquals("9090", uut.getKeyOrDefault("port", "fallback"));
+                // repeated reads reuse the entry found by the first one
+                for (int i = 0; i < 3; i++) {
+                    assertEquals(9090, port.get(uut));
+                    assertEquals("example.com", host.get(uut));
+                    assertTrue(secure.get(uut));
+                    assertEquals(0.25, ratio.get(uut));
+                    assertEquals(1L << 40, limit.get(uut));
+                }
+                assertSame(port.get(uut), port.get(uut));
+                // every way of changing the config is seen through the handles
+                uut.setKey("port", "1234");
+                assertEquals(1234, port.get(uut));
+                uut.removeKey("host");
+                assertEquals("localhost", host.get(uut));
+                uut.update(editor -> editor.setKey("host", "changed"));
+                assertEquals("changed", host.get(uut));
+                uut.compute("port", "0", value -> "4321");
+                assertEquals(4321, port.get(uut));
+                uut.getKeys().remove("secure");
+                assertFalse(secure.get(uut));
+                // a handle shared by two configs reads each one correctly
+                other.setInt("port", 1);
+                for (int i = 0; i < 3; i++) {
+                    assertEquals(1, port.get(other));
+                    assertEquals(4321, port.get(uut));
+                }
+                other.close();
+                uut.close();
+                assertThrows(IllegalStateException.class, () -> port.get(uut));
+                // cleanup garbage files
+                configLocation.delete();
+                otherLocation.delete();
+            }
+        });
+    }
+
+    @Test
+    public void testConfigKeyReleasesConfig() {
+        assertDoesNotThrow(() -> {
+            File configLocation = new ConfigFinder(getClass(), "jConfigFile_ConfigFileTest_testConfigKeyReleasesConfig").searchForConfig();
+            configLocation.delete();
+            ConfigKey<Integer> port = ConfigKey.intKey("port", 8080);
+            uut = new ConfigFile(configLocation);
+            uut.setInt("port", 9090);
+            assertEquals(9090, port.get(uut));
+            uut.close();
+            // a handle kept in a constant does not keep a closed config reachable
+            assertFalse(stronglyReaches(port, uut));
+            // clearing the weak reference the handle holds stands in for collecting the config
+            Field slotField = ConfigKey.class.getDeclaredField("slot");
+            slotField.setAccessible(true);
+            Object slot = slotField.get(port);
+            Field configField = slot.getClass().getDeclaredField("config");
+            configField.setAccessible(true);
+            ((WeakReference<?>) configField.get(slot)).clear();
+            // the handle then serves the next config it is read from
+            uut = new ConfigFile(configLocation);
+            assertEquals(9090, port.get(uut));
+            uut.setKey("other", "value");
+            assertEquals(9090, port.get(uut));
+            uut.setInt("port", 1);
+            assertEquals(1, port.get(uut));
+            assertNotSame(slot, slotField.get(port));
+            uut.close();
+            // cleanup garbage file
+            configLocation.delete();
+        });
+    }
+
+    /**
+     * Checks whether an object reaches another through the fields of this library's classes, not counting weak references.
+     */
+    private static boolean stronglyReaches(Object from, Object to) throws IllegalAccessException {
+        Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<Object> pending = new ArrayDeque<>();
+        pending.add(from);
+        while (!pending.isEmpty()) {
+            Object current = pending.remove();
+            if (current == to) {
+                return true;
+            }
+            if (!seen.add(current)) {
+                continue;
+            }
+            if (current instanceof Object[]) {
+                for (Object element : (Object[]) current) {
+                    if (element != null) {
+                        pending.add(element);
+                    }
+                }
+                continue;
+            }
+            // the JDK's own classes, including the references, are not followed
+            for (Class<?> type = current.getClass(); type.getName().startsWith("com.randallscharpf."); type = type.getSuperclass()) {
+                for (Field field : type.getDeclaredFields()) {
+                    if (!field.getType().isPrimitive() && !Modifier.isStatic(field.getModifiers())) {
+                        field.setAccessible(true);
+                        Object value = field.get(current);
+                        if (value != null) {
+                            pending.add(value);
+                        }
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
     @Test
     public void testFileContention() {
         assertDoesNotThrow(() -> {
@@ -305,4 +1845,62 @@ public class ConfigFileTest {
         });
     }
 
+    /**
+     * Scheduler which keeps write-behind saves until the test runs them.
+     */
+    private static final class ManualScheduler extends ScheduledThreadPoolExecutor {
+
+        private final List<Runnable> tasks = new ArrayList<>();
+        private final List<ScheduledFuture<?>> futures = new ArrayList<>();
+        private long lastDelay = -1;
+
+        ManualScheduler() {
+            super(1);
+        }
+
+        @Override
+        public synchronized ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            // a future which never fires on its own, so that cancelling the save works as usual
+            ScheduledFuture<?> future = super.schedule(() -> { }, 1, TimeUnit.DAYS);
+            tasks.add(command);
+            futures.add(future);
+            lastDelay = unit.toMillis(delay);
+            return future;
+        }
+
+        synchronized int scheduled() {
+            int count = 0;
+            for (ScheduledFuture<?> future : futures) {
+                if (!future.isCancelled()) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        synchronized long lastDelay() {
+            return lastDelay;
+        }
+
+        /**
+         * Runs the saves scheduled so far which have not been cancelled, and returns how many ran.
+         */
+        int runScheduled() {
+            List<Runnable> due = new ArrayList<>();
+            synchronized (this) {
+                for (int i = 0; i < tasks.size(); i++) {
+                    if (futures.get(i).cancel(false)) {
+                        due.add(tasks.get(i));
+                    }
+                }
+                tasks.clear();
+                futures.clear();
+            }
+            for (Runnable task : due) {
+                task.run();
+            }
+            return due.size();
+        }
+    }
+
 }
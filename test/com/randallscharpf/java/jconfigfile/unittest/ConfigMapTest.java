@@ -4,6 +4,9 @@
  */
 package com.randallscharpf.java.jconfigfile.unittest;
 
+import com.randallscharpf.java.jconfigfile.Config;
+import com.randallscharpf.java.jconfigfile.ConfigCounter;
+import com.randallscharpf.java.jconfigfile.ConfigKey;
 import com.randallscharpf.java.jconfigfile.ConfigMap;
 
 import org.junit.jupiter.api.AfterEach;
@@ -12,6 +15,7 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.Timeout;
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
 
@@ -107,4 +111,209 @@ public class ConfigMapTest {
         expected_result.add("date");
         assertEquals(expected_result, uut.getKeys());
     }
+
+    @Test
+    public void testSnapshot() {
+        uut.setKey("key 1", "value 1");
+        uut.setKey("key 2", "value 2");
+        uut.setKey(null, null);
+        Set<String> keys = uut.getKeys();
+        Config snapshot = uut.snapshot();
+        uut.setKey("key 1", "changed");
+        uut.removeKey("key 2");
+        uut.setKey("key 3", "value 3");
+        assertEquals("value 1", snapshot.getKeyOrDefault("key 1", "fallback"));
+        assertEquals("value 2", snapshot.getKeyOrDefault("key 2", "fallback"));
+        assertNull(snapshot.getKeyOrDefault(null, "fallback"));
+        assertEquals("fallback", snapshot.getKeyOrDefault("key 3", "fallback"));
+        assertEquals(new HashSet<>(Arrays.asList("key 1", "key 2", null)), snapshot.getKeys());
+        assertThrows(UnsupportedOperationException.class, () -> snapshot.setKey("key 1", "value"));
+        assertThrows(UnsupportedOperationException.class, () -> snapshot.getKeys().clear());
+        // the key set taken before the snapshot still follows the config
+        assertEquals(new HashSet<>(Arrays.asList("key 1", "key 3", null)), keys);
+        keys.remove("key 1");
+        assertEquals("fallback", uut.getKeyOrDefault("key 1", "fallback"));
+        assertEquals("value 1", snapshot.getKeyOrDefault("key 1", "fallback"));
+        // a snapshot never changes, even when a later snapshot is taken
+        Config later = uut.snapshot();
+        uut.getKeys().clear();
+        assertEquals(3, snapshot.getKeys().size());
+        assertEquals(new HashSet<>(Arrays.asList("key 3", null)), later.getKeys());
+        assertTrue(uut.getKeys().isEmpty());
+    }
+
+    @Test
+    public void testUpdate() {
+        uut.setKey("removed", "value");
+        uut.update(editor -> {
+            editor.setKey("key 1", "value 1").setKey("key 2", "value 2").removeKey("removed");
+            assertEquals("value 1", editor.getKeyOrDefault("key 1", "fallback"));
+            assertFalse(editor.hasKey("removed"));
+            assertEquals("fallback", uut.getKeyOrDefault("key 1", "fallback"));
+        });
+        assertEquals(new HashSet<>(Arrays.asList("key 1", "key 2")), uut.getKeys());
+        assertThrows(IllegalArgumentException.class, () -> uut.update(editor -> {
+            editor.setKey("key 1", "changed");
+            throw new IllegalArgumentException();
+        }));
+        assertEquals("value 1", uut.getKeyOrDefault("key 1", "fallback"));
+    }
+
+    @Test
+    public void testConcurrentUpdate() {
+        assertDoesNotThrow(() -> {
+            List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+            Thread[] writers = new Thread[4];
+            for (int t = 0; t < writers.length; t++) {
+                writers[t] = new Thread(() -> {
+                    for (int i = 0; i < 5000; i++) {
+                        // updates must not lose increments made by each other or by compute
+                        if (i % 2 == 0) {
+                            uut.update(editor -> {
+                                int count = Integer.parseInt(editor.getKeyOrDefault("first", "0"));
+                                editor.setKey("first", Integer.toString(count + 1));
+                                editor.setKey("second", Integer.toString(count + 1));
+                            });
+                        } else {
+                            uut.compute("first", "0", count -> Integer.toString(Integer.parseInt(count) + 1));
+                            uut.merge("second", "1", (count, one) -> Integer.toString(Integer.parseInt(count) + 1));
+                        }
+                    }
+                });
+                writers[t].setUncaughtExceptionHandler((thread, ex) -> failures.add(ex));
+                writers[t].start();
+            }
+            for (Thread writer : writers) {
+                writer.join();
+            }
+            assertEquals(Collections.emptyList(), failures);
+            assertEquals(Integer.toString(writers.length * 5000), uut.getKeyOrDefault("first", "fallback"));
+        });
+    }
+
+    @Test
+    public void testConsistentSnapshot() {
+        assertDoesNotThrow(() -> {
+            List<Throwable> failures = Collections.synchronizedList(new ArrayList<>());
+            Thread writer = new Thread(() -> {
+                for (int i = 0; i < 5000; i++) {
+                    String value = Integer.toString(i);
+                    uut.update(editor -> {
+                        for (int k = 0; k < 20; k++) {
+                            editor.setKey("key " + k, value);
+                        }
+                    });
+                }
+            });
+            writer.setUncaughtExceptionHandler((thread, ex) -> failures.add(ex));
+            writer.start();
+            while (writer.isAlive()) {
+                // a snapshot never holds half of an update
+                Config snapshot = uut.snapshot();
+                String first = snapshot.getKeyOrDefault("key 0", "fallback");
+                for (int k = 1; k < 20; k++) {
+                    assertEquals(first, snapshot.getKeyOrDefault("key " + k, "fallback"));
+                }
+            }
+            writer.join();
+            assertEquals(Collections.emptyList(), failures);
+        });
+    }
+
+    @Test
+    public void testAtomicOperations() {
+        assertTrue(uut.putIfAbsent("key 1", "value 1"));
+        assertFalse(uut.putIfAbsent("key 1", "value 2"));
+        assertEquals("value 1", uut.getKeyOrDefault("key 1", "fallback"));
+        assertTrue(uut.putIfAbsent(null, null));
+        assertFalse(uut.putIfAbsent(null, "value"));
+        assertNull(uut.getKeyOrDefault(null, "fallback"));
+        // a missing key does not hold null
+        assertFalse(uut.replace("key 2", null, "value 2"));
+        assertFalse(uut.getKeys().contains("key 2"));
+        assertTrue(uut.replace(null, null, "not null"));
+        assertFalse(uut.replace("key 1", "value 2", "value 3"));
+        assertTrue(uut.replace("key 1", "value 1", "value 3"));
+        assertEquals("value 3", uut.getKeyOrDefault("key 1", "fallback"));
+        assertEquals("1", uut.compute("count", "0", count -> Integer.toString(Integer.parseInt(count) + 1)));
+        assertEquals("2", uut.compute("count", "0", count -> Integer.toString(Integer.parseInt(count) + 1)));
+        assertEquals("a", uut.merge("list", "a", (list, item) -> list + "," + item));
+        assertEquals("a,b", uut.merge("list", "b", (list, item) -> list + "," + item));
+        assertEquals("a,b", uut.getKeyOrDefault("list", "fallback"));
+        assertEquals(new HashSet<>(Arrays.asList("key 1", null, "count", "list")), uut.getKeys());
+    }
+
+    @Test
+    public void testCounter() {
+        assertDoesNotThrow(() -> {
+            ConfigCounter counter = uut.counter("count");
+            assertSame(counter, uut.counter("count"));
+            counter.increment();
+            counter.add(4);
+            assertEquals(5, counter.get());
+            assertEquals("fallback", uut.getKeyOrDefault("count", "fallback"));
+            uut.save();
+            assertEquals("5", uut.getKeyOrDefault("count", "fallback"));
+            // the counter adds to whatever the key holds
+            uut.setKey("count", "100");
+            counter.add(-1);
+            assertEquals(99, counter.get());
+            uut.save();
+            assertEquals("99", uut.getKeyOrDefault("count", "fallback"));
+            uut.setKey("count", "not a number");
+            counter.increment();
+            uut.save();
+            assertEquals("1", uut.getKeyOrDefault("count", "fallback"));
+        });
+    }
+
+    @Test
+    public void testTypedAccessors() {
+        uut.setInt("int", -12);
+        uut.setLong("long", Long.MAX_VALUE);
+        uut.setDouble("double", 0.1);
+        uut.setBoolean("boolean", true);
+        uut.setDuration("duration", Duration.ofSeconds(90));
+        assertEquals("-12", uut.getKeyOrDefault("int", "fallback"));
+        assertEquals("0.1", uut.getKeyOrDefault("double", "fallback"));
+        assertEquals("PT1M30S", uut.getKeyOrDefault("duration", "fallback"));
+        assertEquals(-12, uut.getInt("int", 0));
+        assertEquals(Long.MAX_VALUE, uut.getLong("long", 0));
+        assertEquals(0.1, uut.getDouble("double", 0));
+        assertTrue(uut.getBoolean("boolean", false));
+        assertEquals(Duration.ofSeconds(90), uut.getDuration("duration", Duration.ZERO));
+        // missing keys and values of another type give the fallback
+        assertEquals(7, uut.getInt("missing", 7));
+        assertEquals(7, uut.getInt("long", 7));
+        assertEquals(7, uut.getLong("boolean", 7));
+        assertFalse(uut.getBoolean("int", false));
+        assertEquals(Duration.ZERO, uut.getDuration("double", Duration.ZERO));
+        uut.setKey("int", null);
+        assertEquals(7, uut.getInt("int", 7));
+    }
+
+    @Test
+    public void testConfigKey() {
+        ConfigKey<Integer> port = ConfigKey.intKey("port", 8080);
+        ConfigKey<String> host = ConfigKey.stringKey("host", "localhost");
+        assertEquals(8080, port.get(uut));
+        assertEquals("localhost", host.get(uut));
+        port.set(uut, 9090);
+        host.set(uut, null);
+        assertEquals("9090", uut.getKeyOrDefault("port", "fallback"));
+        assertEquals(9090, port.get(uut));
+        assertNull(host.get(uut));
+        uut.setKey("port", "not a number");
+        assertEquals(8080, port.get(uut));
+    }
+
+    @Test
+    public void testSaveAsync() {
+        uut.setKey("key 1", "value 1");
+        // nothing needs to run, so the futures are already complete
+        assertTrue(uut.saveAsync().isDone());
+        assertTrue(uut.saveAsync(task -> fail("the executor should not be used")).isDone());
+        assertEquals("value 1", uut.getKeyOrDefault("key 1", "fallback"));
+    }
+
 }